@@ -14,33 +14,38 @@
 package promise.commons;
 
 import android.app.Application;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import io.reactivex.Observable;
-import io.reactivex.ObservableSource;
 import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.disposables.Disposable;
-import io.reactivex.exceptions.UndeliverableException;
-import io.reactivex.functions.Consumer;
-import io.reactivex.plugins.RxJavaPlugins;
-import io.reactivex.schedulers.Schedulers;
-import io.reactivex.subjects.PublishSubject;
 import kotlin.Unit;
 import kotlin.jvm.functions.Function1;
 import kotlin.jvm.functions.Function2;
+import promise.commons.bus.MessageBus;
+import promise.commons.bus.TopicBus;
 import promise.commons.data.log.LogUtil;
+import promise.commons.exec.FanOut;
+import promise.commons.exec.KeyedSerialExecutor;
+import promise.commons.exec.PeriodicSchedule;
+import promise.commons.exec.PeriodicTask;
+import promise.commons.exec.Lane;
+import promise.commons.exec.PromiseExecutor;
+import promise.commons.exec.Task;
+import promise.commons.exec.TaskRegistry;
 import promise.commons.model.List;
 import promise.commons.model.Message;
-import promise.commons.model.function.MapFunction;
+import promise.commons.rx.RxAdapter;
 import promise.commons.tx.AsyncEither;
 import promise.commons.tx.Either;
+import promise.commons.tx.PromiseMetrics;
 import promise.commons.tx.PromiseResult;
 import promise.commons.util.Conditions;
 
@@ -56,6 +61,18 @@ public class AndroidPromise {
    *
    */
   private static String TAG;
+  /**
+   * tasks a compute or io executor queues before running them on the submitting thread
+   */
+  private static final int QUEUE_CAPACITY = 1024;
+  /**
+   * io threads used when no thread count was given to init
+   */
+  private static final int DEFAULT_IO_THREADS = 16;
+  /**
+   * stripes of the keyed serial executor
+   */
+  private static final int SERIAL_STRIPES = 64;
 
   /**
    *
@@ -66,32 +83,43 @@ public class AndroidPromise {
    */
   private Application context;
   /**
-   *
+   * maximum number of io threads
    */
-  private ExecutorService executor;
+  private int ioThreads = DEFAULT_IO_THREADS;
+  /**
+   * executors of the lanes, each created on first use
+   */
+  private volatile PromiseExecutor compute, io, serial;
+  /**
+   * orders tasks by key on the io lane, created on first use
+   */
+  private volatile KeyedSerialExecutor keyed;
+  /**
+   * shared timer for delayed execution, it only hands due tasks over to the executor
+   */
+  private volatile ScheduledExecutorService timer;
   /**
    *
    */
-  private PublishSubject<Message> bus;
+  private volatile MessageBus bus;
   /**
    *
    */
   private Handler handler;
   /**
-   *
+   * tasks of {@link #execute(Callable, PromiseResult)} not done yet
    */
-  private CompositeDisposable disposable;
+  private final TaskRegistry tasks = new TaskRegistry();
   /**
-   *
+   * created on first use so RxJava is only needed by apps using it
    */
-  private List<Disposable> disposables;
+  private CompositeDisposable disposable;
 
   /**
    * @param context
    */
   AndroidPromise(Application context) {
     this.context = context;
-    disposable = new CompositeDisposable();
   }
 
   /**
@@ -133,12 +161,7 @@ public class AndroidPromise {
   }
 
   private static void initializeRxUndeliverableError() {
-    RxJavaPlugins.setErrorHandler(throwable -> {
-      if (throwable instanceof UndeliverableException)
-        LogUtil.e(TAG, "undeliverable error: ", throwable);
-      else Thread.currentThread().getUncaughtExceptionHandler()
-          .uncaughtException(Thread.currentThread(), throwable);
-    });
+    if (RxAdapter.isAvailable()) RxAdapter.installErrorHandler();
   }
 
   public static AndroidPromise instance() {
@@ -154,8 +177,20 @@ public class AndroidPromise {
    * @param object
    */
   public void send(Message object) {
-    if (bus == null) bus = PublishSubject.create();
-    bus.onNext(object);
+    bus().send(object);
+  }
+
+  /**
+   * sends a pooled message, for high rate senders of numbers, so no envelope is allocated
+   * per message, listeners read it with {@link Message#value()}, bus subscribers must not
+   * keep it while {@link #listen} callbacks get a copy since they may run later on the ui
+   * thread
+   *
+   * @param sender
+   * @param value
+   */
+  public void send(String sender, long value) {
+    bus().send(Message.obtain(sender, value));
   }
 
   /**
@@ -164,27 +199,77 @@ public class AndroidPromise {
    * @return
    */
   public int listen(final String sender, final PromiseResult<Object, Throwable> callBack) {
-    if (bus == null) bus = PublishSubject.create();
-    if (disposables == null) disposables = new List<>();
-    disposables.add(
-        bus.subscribeOn(Schedulers.from(executor()))
-            .observeOn(Schedulers.from(executor()))
-            .subscribe(
-                object -> {
-                  if (sender.equals(object.sender())) callBack.response(object);
-                },
-                callBack::error));
-    disposable.add(Conditions.checkNotNull(disposables.last()));
-    return disposables.size() - 1;
+    return listen(sender, callBack, Lane.IO);
+  }
+
+  /**
+   * @param sender
+   * @param callBack
+   * @param lane     lane the callback is called on
+   * @return
+   */
+  public int listen(final String sender, final PromiseResult<Object, Throwable> callBack, Lane lane) {
+    // the callback may be posted to the ui thread, after the pooled message is recycled
+    return bus().subscribe(sender, executor(lane), message -> callBack.response(message.detach()));
+  }
+
+  /**
+   * @param pattern  sender pattern, see {@link MessageBus#subscribePattern}
+   * @param callBack
+   * @param lane     lane the callback is called on
+   * @return
+   */
+  public int listenPattern(final String pattern, final PromiseResult<Object, Throwable> callBack,
+                           Lane lane) {
+    return bus().subscribePattern(pattern, executor(lane),
+        message -> callBack.response(message.detach()));
+  }
+
+  /**
+   * keeps the last messages of the sender so that listeners added later receive them
+   * first, instead of querying the data they were built from again
+   *
+   * @param sender sender whose messages are kept
+   * @param retain number of messages kept, 1 keeps the latest, less than 1 stops keeping
+   */
+  public void sticky(String sender, int retain) {
+    bus().sticky(sender, retain);
   }
 
   /**
    * @param id
    */
   public void stopListening(int id) {
-    if (bus == null) return;
-    if (disposables == null || disposables.isEmpty()) return;
-    disposable.remove(disposables.get(id));
+    MessageBus bus = this.bus;
+    if (bus != null) bus.unsubscribe(id);
+  }
+
+  /**
+   * replaces the message bus, listeners of the previous bus stop receiving messages
+   *
+   * @param bus bus backend such as a {@link promise.commons.bus.RingBufferBus}
+   * @return
+   */
+  public AndroidPromise bus(MessageBus bus) {
+    MessageBus previous;
+    synchronized (this) {
+      previous = this.bus;
+      this.bus = Conditions.checkNotNull(bus);
+    }
+    if (previous != null) previous.clear();
+    return this;
+  }
+
+  /**
+   * @return the message bus, created on first use
+   */
+  public MessageBus bus() {
+    MessageBus bus = this.bus;
+    if (bus == null) synchronized (this) {
+      bus = this.bus;
+      if (bus == null) this.bus = bus = new TopicBus();
+    }
+    return bus;
   }
 
   public Application context() {
@@ -192,19 +277,43 @@ public class AndroidPromise {
   }
 
   /**
-   * @return
+   * @return the executor of the io lane, which untagged tasks run on
    */
   public ExecutorService executor() {
-    if (executor == null) return Executors.newSingleThreadExecutor();
-    return executor;
+    return executor(Lane.IO);
+  }
+
+  /**
+   * @param lane kind of work
+   * @return the executor of the lane, created on first use
+   */
+  public PromiseExecutor executor(Lane lane) {
+    switch (lane) {
+      case COMPUTE:
+        if (compute == null) synchronized (this) {
+          if (compute == null) compute = PromiseExecutor.compute(
+              Math.max(1, Runtime.getRuntime().availableProcessors()), QUEUE_CAPACITY);
+        }
+        return compute;
+      case SERIAL:
+        if (serial == null) synchronized (this) {
+          if (serial == null) serial = PromiseExecutor.serial();
+        }
+        return serial;
+      default:
+        if (io == null) synchronized (this) {
+          if (io == null) io = PromiseExecutor.io(ioThreads, QUEUE_CAPACITY);
+        }
+        return io;
+    }
   }
 
   /**
-   * @param threads
+   * @param threads maximum number of io threads
    * @return
    */
   AndroidPromise threads(int threads) {
-    if (executor == null) executor = Executors.newFixedThreadPool(threads);
+    ioThreads = threads;
     return this;
   }
 
@@ -221,22 +330,81 @@ public class AndroidPromise {
    * @param runnable
    */
   public void execute(Runnable runnable) {
-    executor().execute(runnable);
+    execute(Lane.IO, runnable);
   }
 
   /**
+   * @param lane     kind of work the runnable does
    * @param runnable
-   * @param wait
    */
-  public void execute(Runnable runnable, long wait) {
-    execute(() -> {
-      try {
-        Thread.sleep(wait);
-        execute(runnable);
-      } catch (InterruptedException e) {
-        e.printStackTrace();
+  public void execute(Lane lane, Runnable runnable) {
+    executor(lane).execute(PromiseMetrics.isEnabled() ?
+        PromiseMetrics.instrument(PromiseMetrics.EXECUTOR_STAGE, runnable) : runnable);
+  }
+
+  /**
+   * runs the runnable on the io lane after every task submitted earlier with the same
+   * key, tasks with other keys run in parallel
+   *
+   * @param key      key the runnable is ordered by, such as a conversation or account id
+   * @param runnable
+   */
+  public void executeSerial(Object key, Runnable runnable) {
+    keyed().execute(key, runnable);
+  }
+
+  /**
+   * @return executor ordering tasks by key on the io lane
+   */
+  public KeyedSerialExecutor keyed() {
+    if (keyed == null) synchronized (this) {
+      if (keyed == null) keyed = new KeyedSerialExecutor(this::execute, SERIAL_STRIPES);
+    }
+    return keyed;
+  }
+
+  /**
+   * executes the runnable on the executor once the wait has elapsed, no thread is held
+   * while waiting
+   *
+   * @param runnable
+   * @param wait     delay in millis
+   * @return handle that cancels the execution if it has not been handed to the executor yet
+   */
+  public ScheduledFuture<?> execute(Runnable runnable, long wait) {
+    return execute(Lane.IO, runnable, wait);
+  }
+
+  /**
+   * @param lane     kind of work the runnable does
+   * @param runnable
+   * @param wait     delay in millis
+   * @return handle that cancels the execution if it has not been handed to the executor yet
+   */
+  public ScheduledFuture<?> execute(Lane lane, Runnable runnable, long wait) {
+    return timer().schedule(() -> execute(lane, runnable), wait, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the shared timer, created on first use
+   */
+  private ScheduledExecutorService timer() {
+    ScheduledExecutorService timer = this.timer;
+    if (timer == null) synchronized (this) {
+      timer = this.timer;
+      if (timer == null) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+          Thread thread = new Thread(runnable, "promise-timer");
+          thread.setDaemon(true);
+          return thread;
+        });
+        // cancelled timeouts would otherwise stay queued until they are due
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+          executor.setRemoveOnCancelPolicy(true);
+        this.timer = timer = executor;
       }
-    });
+    }
+    return timer;
   }
 
   /**
@@ -258,106 +426,98 @@ public class AndroidPromise {
 
   /**
    * @param runnable
-   * @param waitInterval
+   * @param waitInterval seconds between the starts of two runs
+   * @return handle to stop the runs
+   * @deprecated use {@link #executePeriodically(Runnable, PeriodicSchedule)}
    */
-  public void executeRepeatativelyWithSeconds(Runnable runnable, long waitInterval) {
-    ScheduledExecutorService scheduler =
-        Executors.newSingleThreadScheduledExecutor();
-    scheduler.scheduleAtFixedRate
-        (runnable, 0, waitInterval, TimeUnit.SECONDS);
+  @Deprecated
+  public PeriodicTask executeRepeatativelyWithSeconds(Runnable runnable, long waitInterval) {
+    return executePeriodically(runnable, PeriodicSchedule.fixedRate(TimeUnit.SECONDS.toMillis(waitInterval)));
   }
 
   /**
+   * runs the runnable on the io lane following the schedule, every periodic task shares
+   * the timer so none holds a thread while waiting
+   *
+   * @param runnable
+   * @param schedule when the runnable runs
+   * @return handle to stop the runs
+   */
+  public PeriodicTask executePeriodically(Runnable runnable, PeriodicSchedule schedule) {
+    return executePeriodically(Lane.IO, runnable, schedule);
+  }
+
+  /**
+   * @param lane     kind of work the runnable does
+   * @param runnable
+   * @param schedule when the runnable runs
+   * @return handle to stop the runs
+   */
+  public PeriodicTask executePeriodically(Lane lane, Runnable runnable, PeriodicSchedule schedule) {
+    return PeriodicTask.start(timer(), executor(lane), runnable, schedule);
+  }
+
+  /**
+   * runs the action on the io lane
+   *
    * @param action
-   * @param promiseResult
+   * @param promiseResult receives the result on the io lane, or a
+   *                      {@link java.util.concurrent.RejectedExecutionException} once the lane is shut down
    * @param <T>
+   * @return handle to cancel the action
    */
-  public <T> void execute(
+  public <T> Task<T> execute(
       final Callable<? extends T> action, final PromiseResult<T, Throwable> promiseResult) {
-    if (disposables == null) disposables = new List<>();
-    disposables.add(
-        Observable.fromCallable(
-            action)
-            .observeOn(Schedulers.from(executor()))
-            .subscribeOn(Schedulers.from(executor()))
-            .subscribe(
-                promiseResult::response,
-                promiseResult::error));
-    disposable.add(Conditions.checkNotNull(disposables.last()));
+    return Task.start(executor(Lane.IO), tasks, action, promiseResult);
   }
 
   public <T> Either<T> execute(
       final Callable<? extends T> action) {
     return new AsyncEither<>((unitFunction1, unitFunction12) -> {
-      if (disposables == null) disposables = new List<>();
-      disposables.add(
-          Observable.fromCallable(
-              action)
-              .observeOn(Schedulers.from(executor()))
-              .subscribeOn(Schedulers.from(executor()))
-              .subscribe((Consumer<T>) unitFunction1::invoke,
-                  unitFunction12::invoke));
-      disposable.add(Conditions.checkNotNull(disposables.last()));
+      Task.start(executor(Lane.IO), tasks, action, new PromiseResult<T, Throwable>()
+          .withCallback(unitFunction1::invoke)
+          .withErrorCallback(unitFunction12::invoke));
       return null;
     });
   }
 
- /* public <T> void executeAsync(
-    final AsyncAction<T> action, final Result<T, Throwable> response) {
-    if (disposables == null) disposables = new List<>();
-    disposables.add(
-      Observable.fromCallable(
-        new Callable<T>() {
-          @Override
-          public T call() throws Exception {
-            return action.execute();
-          }
-        })
-        .observeOn(Schedulers.from(instance().executor))
-        .subscribeOn(Schedulers.from(instance().executor))
-        .subscribe(
-          new Consumer<T>() {
-            @Override
-            public void accept(T t) {
-              response.response(t);
-            }
-          },
-          new Consumer<Throwable>() {
-            @Override
-            public void accept(Throwable throwable) {
-              response.error(throwable);
-            }
-          }));
-    disposable.add(Conditions.checkNotNull(disposables.last()));
-  }*/
+  /**
+   * @return tasks of {@link #execute(Callable, PromiseResult)} not done yet
+   */
+  public TaskRegistry tasks() {
+    return tasks;
+  }
 
   /**
+   * runs the actions in parallel on the io lane, at most as many at once as there are
+   * io threads, the first error is delivered right away
+   *
    * @param actions
-   * @param promiseResult
+   * @param promiseResult receives the results in the order of the actions
    */
   public void execute(
       final List<? extends Callable<?>> actions, final PromiseResult<List<?>, Throwable> promiseResult) {
-    if (disposables == null) disposables = new List<>();
-    disposables.add(
-        Observable.zip(
-            actions.map(
-                (MapFunction<ObservableSource<?>, Callable<?>>) action -> (ObservableSource<Object>) observer -> {
-                  try {
-                    observer.onNext(action.call());
-                  } catch (Exception e) {
-                    observer.onError(e);
-                  }
-                }),
-            List::fromArray)
-            .observeOn(Schedulers.from(executor()))
-            .subscribeOn(Schedulers.from(executor()))
-            .subscribe(
-                promiseResult::response,
-                promiseResult::error));
-    disposable.add(Conditions.checkNotNull(disposables.last()));
-  }
-
-  public CompositeDisposable getCompositeDisposable() {
+    execute(actions, ioThreads, true, promiseResult);
+  }
+
+  /**
+   * @param actions
+   * @param concurrency   actions running at once at most
+   * @param failFast      true to deliver the first error right away and skip the actions
+   *                      not started yet, false to run every action first
+   * @param promiseResult receives the results in the order of the actions
+   * @return handle to cancel the actions not started yet
+   */
+  public FanOut execute(final List<? extends Callable<?>> actions, int concurrency,
+                        boolean failFast, final PromiseResult<List<?>, Throwable> promiseResult) {
+    return FanOut.start(executor(Lane.IO), actions, concurrency, failFast, promiseResult);
+  }
+
+  /**
+   * @return disposables disposed on {@link #terminate()}, needs RxJava, see {@link RxAdapter}
+   */
+  public synchronized CompositeDisposable getCompositeDisposable() {
+    if (disposable == null) disposable = new CompositeDisposable();
     return disposable;
   }
 
@@ -372,10 +532,17 @@ public class AndroidPromise {
     send(new Message(TAG, CLEANING_UP_RESOURCES));
     executeOnUi(() -> {
       context = null;
-      disposable.dispose();
-      disposables.clear();
+      synchronized (this) {
+        if (disposable != null) disposable.dispose();
+      }
+      if (bus != null) bus.clear();
       bus = null;
-      executor().shutdownNow();
+      if (timer != null) timer.shutdownNow();
+      // tasks still queued are failed so their results hear about it, running ones are cancelled
+      if (compute != null) tasks.rejectAll(compute.shutdownNow());
+      if (io != null) tasks.rejectAll(io.shutdownNow());
+      if (serial != null) tasks.rejectAll(serial.shutdownNow());
+      tasks.cancelAll();
     }, 50);
   }
 }
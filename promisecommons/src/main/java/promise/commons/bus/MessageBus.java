@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.bus;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.concurrent.Executor;
+
+import promise.commons.model.Message;
+
+/**
+ * delivers messages to the subscribers of their sender, which is the topic of the
+ * message, topics are hierarchical with segments separated by '/'
+ */
+public interface MessageBus {
+  /**
+   * @param message message delivered to the subscribers of its sender
+   */
+  void send(@NonNull Message message);
+
+  /**
+   * sends the messages in order, subscribers on the same executor are reached with
+   * one task for the whole batch
+   *
+   * @param messages messages
+   */
+  void sendAll(@NonNull Collection<? extends Message> messages);
+
+  /**
+   * @param topic      sender the subscriber receives the messages of
+   * @param executor   executor the subscriber is called on, in the order messages were sent
+   * @param subscriber subscriber
+   * @return id to pass to {@link #unsubscribe(int)}
+   */
+  int subscribe(@NonNull String topic, @NonNull Executor executor, @NonNull Subscriber subscriber);
+
+  /**
+   * @param pattern    topic where a '*' segment matches any one segment and a trailing '#'
+   *                   segment matches any remaining segments, such as "chat/*" or
+   *                   "account/#"
+   * @param executor   executor the subscriber is called on, in the order messages were sent
+   * @param subscriber subscriber
+   * @return id to pass to {@link #unsubscribe(int)}
+   */
+  int subscribePattern(@NonNull String pattern, @NonNull Executor executor,
+                       @NonNull Subscriber subscriber);
+
+  /**
+   * keeps the last messages sent to the topic, a subscriber to the exact topic receives
+   * them first, in order and without a gap to the messages sent afterwards
+   *
+   * @param topic  sender whose messages are kept
+   * @param retain number of messages kept, 1 keeps the latest, less than 1 stops keeping
+   */
+  void sticky(@NonNull String topic, int retain);
+
+  /**
+   * stops delivering to the subscriber, messages already being delivered may still arrive
+   *
+   * @param id id returned when subscribing
+   */
+  void unsubscribe(int id);
+
+  /**
+   * stops delivering to every subscriber and forgets the kept messages
+   */
+  void clear();
+
+  /**
+   * receives the messages of a topic
+   */
+  interface Subscriber {
+    /**
+     * @param message message sent to the topic
+     */
+    void onMessage(Message message);
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.bus;
+
+/**
+ * what {@link RingBufferBus} does with a message for a subscriber whose buffer is full
+ */
+public enum OverflowPolicy {
+  /**
+   * the sender waits until the subscriber makes room, so senders must not run on a
+   * single thread executor the subscriber is drained on, a subscriber sending to itself
+   * drops its oldest message instead so it cannot wait on itself
+   */
+  BLOCK,
+  /**
+   * the oldest queued message is dropped to make room
+   */
+  DROP_OLDEST,
+  /**
+   * the new message is dropped
+   */
+  DROP_NEWEST,
+  /**
+   * the new message replaces the latest queued message of the same sender, or the
+   * oldest queued message if there is none, for topics where only the latest state
+   * matters
+   */
+  COALESCE_BY_SENDER
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.bus;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import promise.commons.model.Message;
+
+/**
+ * subscription queueing its messages in an unbounded lock free queue
+ */
+final class QueueSubscription extends Subscription {
+  /**
+   *
+   */
+  private final ConcurrentLinkedQueue<Message> mailbox = new ConcurrentLinkedQueue<>();
+  /**
+   * number of messages offered and not yet seen by the drain
+   */
+  private final AtomicInteger wip = new AtomicInteger();
+
+  QueueSubscription(int id, String topic, boolean pattern, Executor executor,
+                    MessageBus.Subscriber subscriber) {
+    super(id, topic, pattern, executor, subscriber);
+  }
+
+  @Override
+  boolean offer(Message message) {
+    mailbox.offer(message.retain());
+    return wip.getAndIncrement() == 0;
+  }
+
+  @Override
+  void drain() {
+    int missed = 1;
+    for (; ; ) {
+      Message message;
+      while ((message = mailbox.poll()) != null) deliver(message);
+      missed = wip.addAndGet(-missed);
+      if (missed == 0) return;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.bus;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+
+import promise.commons.data.log.LogUtil;
+
+/**
+ * topic indexed bus where every subscriber has a bounded preallocated ring of waiting
+ * messages drained in batches, so a slow subscriber costs at most its ring during a
+ * burst, what happens once a ring is full is set by its {@link OverflowPolicy}, and
+ * subscribers falling behind are reported to a {@link SlowSubscriberListener}
+ */
+public class RingBufferBus extends TopicBus {
+  /**
+   *
+   */
+  private static final String TAG = LogUtil.makeTag(RingBufferBus.class);
+  /**
+   *
+   */
+  private final int capacity;
+  /**
+   *
+   */
+  private final int batchSize;
+  /**
+   *
+   */
+  private final OverflowPolicy policy;
+  /**
+   *
+   */
+  private final long slowMillis;
+  /**
+   *
+   */
+  private final SlowSubscriberListener listener;
+
+  private RingBufferBus(@NonNull Builder builder) {
+    capacity = builder.capacity;
+    batchSize = builder.batchSize;
+    policy = builder.policy;
+    slowMillis = builder.slowMillis;
+    listener = builder.listener;
+  }
+
+  @NonNull
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  @Override
+  Subscription newSubscription(int id, String topic, boolean pattern, Executor executor,
+                               Subscriber subscriber) {
+    return new RingSubscription(id, topic, pattern, executor, subscriber, capacity, batchSize,
+        policy, slowMillis, listener);
+  }
+
+  /**
+   * told when a subscriber starts falling behind, once until it catches up
+   */
+  public interface SlowSubscriberListener {
+    /**
+     * called on the executor of the subscriber
+     *
+     * @param topic     topic or pattern of the subscriber
+     * @param lagMillis time the oldest waiting message has waited for
+     * @param dropped   messages dropped or coalesced since the last batch
+     */
+    void onSlowSubscriber(String topic, long lagMillis, long dropped);
+  }
+
+  public static final class Builder {
+    int capacity = 256;
+    int batchSize = 64;
+    OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+    long slowMillis = 1000;
+    SlowSubscriberListener listener = (topic, lagMillis, dropped) ->
+        LogUtil.w(TAG, "subscriber of ", topic, " is ", lagMillis, " millis behind, dropped ", dropped);
+
+    private Builder() {
+    }
+
+    /**
+     * @param val messages a subscriber can have waiting, defaults to 256
+     */
+    @NonNull
+    public Builder capacity(int val) {
+      if (val < 1) throw new IllegalArgumentException("capacity must be more than zero");
+      capacity = val;
+      return this;
+    }
+
+    /**
+     * @param val messages delivered per batch, defaults to 64
+     */
+    @NonNull
+    public Builder batchSize(int val) {
+      if (val < 1) throw new IllegalArgumentException("batchSize must be more than zero");
+      batchSize = val;
+      return this;
+    }
+
+    /**
+     * @param val what to do with a message for a full ring, defaults to
+     *            {@link OverflowPolicy#DROP_OLDEST}
+     */
+    @NonNull
+    public Builder overflowPolicy(@NonNull OverflowPolicy val) {
+      policy = val;
+      return this;
+    }
+
+    /**
+     * @param val time a message may wait before its subscriber counts as slow, defaults
+     *            to 1000
+     */
+    @NonNull
+    public Builder slowSubscriberMillis(long val) {
+      if (val < 0) throw new IllegalArgumentException("slowSubscriberMillis must not be negative");
+      slowMillis = val;
+      return this;
+    }
+
+    /**
+     * @param val told about slow subscribers, logs by default, null to ignore them
+     */
+    @NonNull
+    public Builder slowSubscriberListener(SlowSubscriberListener val) {
+      listener = val;
+      return this;
+    }
+
+    @NonNull
+    public RingBufferBus build() {
+      return new RingBufferBus(this);
+    }
+  }
+}
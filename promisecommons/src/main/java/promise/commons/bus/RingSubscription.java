@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.bus;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import promise.commons.model.Message;
+
+/**
+ * subscription queueing its messages in a preallocated ring, drained in batches, the
+ * ring is guarded by the subscription so senders only contend with each other and the
+ * drain of the same subscriber, never with other subscribers
+ */
+final class RingSubscription extends Subscription {
+  /**
+   *
+   */
+  private final OverflowPolicy policy;
+  /**
+   *
+   */
+  private final long slowNanos;
+  /**
+   *
+   */
+  private final RingBufferBus.SlowSubscriberListener listener;
+  /**
+   * queued messages, the oldest at {@link #head}
+   */
+  private final Message[] ring;
+  /**
+   * {@link System#nanoTime()} each queued message was offered at
+   */
+  private final long[] offeredAt;
+  /**
+   * messages taken in one go, only touched by the drain
+   */
+  private final Message[] batch;
+  /**
+   * guarded by this
+   */
+  private int head;
+  /**
+   * guarded by this
+   */
+  private int count;
+  /**
+   * true while a drain is scheduled or running, guarded by this
+   */
+  private boolean scheduled;
+  /**
+   * thread running the drain, guarded by this
+   */
+  private Thread drainer;
+  /**
+   * messages dropped or coalesced since the drain last looked, guarded by this
+   */
+  private long dropped;
+  /**
+   * true once reported as slow until the subscriber catches up, only touched by the drain
+   */
+  private boolean slow;
+
+  RingSubscription(int id, String topic, boolean pattern, Executor executor,
+                   MessageBus.Subscriber subscriber, int capacity, int batchSize,
+                   OverflowPolicy policy, long slowMillis,
+                   RingBufferBus.SlowSubscriberListener listener) {
+    super(id, topic, pattern, executor, subscriber);
+    this.ring = new Message[capacity];
+    this.offeredAt = new long[capacity];
+    this.batch = new Message[Math.min(batchSize, capacity)];
+    this.policy = policy;
+    this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+    this.listener = listener;
+  }
+
+  @Override
+  boolean mayBlock() {
+    return policy == OverflowPolicy.BLOCK;
+  }
+
+  @Override
+  synchronized boolean offer(Message message) {
+    if (!active) return false;
+    if (count == ring.length && !overflow(message)) return false;
+    int tail = (head + count) % ring.length;
+    ring[tail] = message.retain();
+    offeredAt[tail] = System.nanoTime();
+    count++;
+    if (scheduled) return false;
+    scheduled = true;
+    return true;
+  }
+
+  /**
+   * called with the ring full
+   *
+   * @param message message being offered
+   * @return true if room was made for the message, false if it was dropped or coalesced
+   */
+  private boolean overflow(Message message) {
+    switch (policy) {
+      case DROP_NEWEST:
+        dropped++;
+        return false;
+      case COALESCE_BY_SENDER:
+        for (int i = count - 1; i >= 0; i--) {
+          int index = (head + i) % ring.length;
+          if (message.sender().equals(ring[index].sender())) {
+            // keeps the time of the replaced message so the lag stays visible
+            ring[index].recycle();
+            ring[index] = message.retain();
+            dropped++;
+            return false;
+          }
+        }
+        break;
+      case BLOCK:
+        if (Thread.currentThread() == drainer) break;
+        try {
+          while (count == ring.length && active) wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          dropped++;
+          return false;
+        }
+        return active;
+    }
+    ring[head].recycle();
+    ring[head] = null;
+    head = (head + 1) % ring.length;
+    count--;
+    dropped++;
+    return true;
+  }
+
+  @Override
+  void drain() {
+    for (; ; ) {
+      int taken;
+      long lag;
+      long dropped;
+      synchronized (this) {
+        if (count == 0 || !active) {
+          scheduled = false;
+          drainer = null;
+          return;
+        }
+        drainer = Thread.currentThread();
+        taken = Math.min(count, batch.length);
+        lag = System.nanoTime() - offeredAt[head];
+        for (int i = 0; i < taken; i++) {
+          batch[i] = ring[head];
+          ring[head] = null;
+          head = (head + 1) % ring.length;
+        }
+        count -= taken;
+        dropped = this.dropped;
+        this.dropped = 0;
+        if (policy == OverflowPolicy.BLOCK) notifyAll();
+      }
+      checkSlow(lag, dropped);
+      for (int i = 0; i < taken; i++) {
+        deliver(batch[i]);
+        batch[i] = null;
+      }
+    }
+  }
+
+  /**
+   * reports the subscriber once when it starts falling behind
+   *
+   * @param lag     time the oldest taken message waited for
+   * @param dropped messages dropped or coalesced since the last batch
+   */
+  private void checkSlow(long lag, long dropped) {
+    boolean behind = lag > slowNanos || dropped > 0;
+    if (behind && !slow && listener != null)
+      listener.onSlowSubscriber(topic, TimeUnit.NANOSECONDS.toMillis(lag), dropped);
+    slow = behind;
+  }
+
+  @Override
+  synchronized void cancel() {
+    super.cancel();
+    for (int i = 0; i < count; i++) {
+      int index = (head + i) % ring.length;
+      ring[index].recycle();
+      ring[index] = null;
+    }
+    count = 0;
+    // releases senders waiting for room
+    notifyAll();
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.bus;
+
+import java.util.concurrent.Executor;
+
+import promise.commons.data.log.LogUtil;
+import promise.commons.model.Message;
+
+/**
+ * subscriber registered on a bus with the messages waiting for it, the messages are
+ * drained by at most one thread at a time so they arrive in the order they were sent,
+ * running the subscription drains it
+ */
+abstract class Subscription implements Runnable {
+  /**
+   *
+   */
+  private static final String TAG = LogUtil.makeTag(Subscription.class);
+  /**
+   *
+   */
+  final int id;
+  /**
+   * topic or pattern subscribed to
+   */
+  final String topic;
+  /**
+   *
+   */
+  final boolean pattern;
+  /**
+   *
+   */
+  final Executor executor;
+  /**
+   *
+   */
+  final MessageBus.Subscriber subscriber;
+  /**
+   * cleared on unsubscribe, queued messages are then dropped
+   */
+  volatile boolean active = true;
+
+  Subscription(int id, String topic, boolean pattern, Executor executor,
+               MessageBus.Subscriber subscriber) {
+    this.id = id;
+    this.topic = topic;
+    this.pattern = pattern;
+    this.executor = executor;
+    this.subscriber = subscriber;
+  }
+
+  /**
+   * @param message message to deliver, retained if it is kept for the subscriber
+   * @return true if the caller has to schedule {@link #drain()}
+   */
+  abstract boolean offer(Message message);
+
+  /**
+   * delivers the queued messages
+   */
+  abstract void drain();
+
+  @Override
+  public final void run() {
+    drain();
+  }
+
+  /**
+   * @return true if {@link #offer(Message)} may wait for the subscriber, the bus then
+   * schedules the drains it holds back before offering
+   */
+  boolean mayBlock() {
+    return false;
+  }
+
+  /**
+   * stops delivering, messages still queued are dropped
+   */
+  void cancel() {
+    active = false;
+  }
+
+  /**
+   * @param message message to hand to the subscriber, recycled afterwards
+   */
+  final void deliver(Message message) {
+    try {
+      if (active) subscriber.onMessage(message);
+    } catch (RuntimeException e) {
+      LogUtil.e(TAG, e, "subscriber of ", topic, " failed");
+    } finally {
+      message.recycle();
+    }
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.bus;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import promise.commons.model.Message;
+import promise.commons.util.Conditions;
+
+/**
+ * message bus indexed by topic, sending only touches the subscribers of the topic of
+ * the message, and the subscribers that were idle are reached with one task per
+ * executor instead of one per subscriber, sending reuses buffers of the sending thread
+ * and a message from {@link Message#obtain(String, long)} goes back to the pool once
+ * delivered, but each subscriber still queues it in a new mailbox node, see
+ * {@link RingBufferBus} for mailboxes allocated up front
+ */
+public class TopicBus implements MessageBus {
+  /**
+   * lists reused by the sends of each thread
+   */
+  private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+    @Override
+    protected Buffers initialValue() {
+      return new Buffers();
+    }
+  };
+  /**
+   *
+   */
+  private final TopicIndex index = new TopicIndex();
+  /**
+   *
+   */
+  private final ConcurrentHashMap<Integer, Subscription> subscriptions = new ConcurrentHashMap<>();
+  /**
+   *
+   */
+  private final AtomicInteger ids = new AtomicInteger();
+  /**
+   * messages kept for late subscribers by sticky topic
+   */
+  private final ConcurrentHashMap<String, Retained> sticky = new ConcurrentHashMap<>();
+
+  /**
+   * the message is recycled once offered, a pooled message must not be used by the
+   * sender afterwards
+   *
+   * @param message message delivered to the subscribers of its sender
+   */
+  @Override
+  public void send(@NonNull Message message) {
+    Buffers buffers = Buffers.take();
+    try {
+      send(message, buffers);
+      if (!buffers.idle.isEmpty()) schedule(buffers.idle);
+    } finally {
+      buffers.release();
+    }
+  }
+
+  /**
+   * the messages are recycled once offered, pooled messages must not be used by the
+   * sender afterwards
+   *
+   * @param messages messages
+   */
+  @Override
+  public void sendAll(@NonNull Collection<? extends Message> messages) {
+    Buffers buffers = Buffers.take();
+    try {
+      for (Message message : messages) if (message != null) send(message, buffers);
+      if (!buffers.idle.isEmpty()) schedule(buffers.idle);
+    } finally {
+      buffers.release();
+    }
+  }
+
+  /**
+   * offers the message and recycles it
+   *
+   * @param message message to send
+   * @param buffers buffers of the sending thread
+   */
+  private void send(Message message, Buffers buffers) {
+    try {
+      // a message without a sender has no topic and nobody listens to it
+      if (message.sender() == null) return;
+      Retained retained = sticky.isEmpty() ? null : sticky.get(message.sender());
+      if (retained == null) offer(message, buffers.matches, buffers.idle);
+      // subscribing to the topic replays under the same lock, so nothing is missed or seen twice
+      else synchronized (retained) {
+        retained.add(message);
+        offer(message, buffers.matches, buffers.idle);
+      }
+    } finally {
+      message.recycle();
+    }
+  }
+
+  /**
+   * @param message message to offer to the subscribers of its sender
+   * @param matches reused to collect the subscribers
+   * @param idle    collects the subscriptions whose drain has to be scheduled
+   */
+  private void offer(Message message, ArrayList<Subscription> matches,
+                     ArrayList<Subscription> idle) {
+    matches.clear();
+    index.match(message.sender(), matches);
+    for (int i = 0, size = matches.size(); i < size; i++) {
+      Subscription subscription = matches.get(i);
+      if (!subscription.active) continue;
+      // a blocked offer waits for a drain, which must not be one still held back
+      if (!idle.isEmpty() && subscription.mayBlock()) schedule(idle);
+      if (subscription.offer(message)) idle.add(subscription);
+    }
+    matches.clear();
+  }
+
+  /**
+   * drains the mailboxes of the subscriptions that were idle, grouped by executor, and
+   * clears the list
+   *
+   * @param idle subscriptions whose drain has to be scheduled
+   */
+  private static void schedule(ArrayList<Subscription> idle) {
+    for (int i = 0, size = idle.size(); i < size; i++) {
+      Subscription first = idle.get(i);
+      if (first == null) continue;
+      final Executor executor = first.executor;
+      int members = 0;
+      for (int j = i; j < size; j++) {
+        Subscription subscription = idle.get(j);
+        if (subscription != null && subscription.executor == executor) members++;
+      }
+      // a lone subscription is its own task
+      if (members == 1) {
+        idle.set(i, null);
+        executor.execute(first);
+        continue;
+      }
+      final Subscription[] group = new Subscription[members];
+      for (int j = i, k = 0; k < members; j++) {
+        Subscription subscription = idle.get(j);
+        if (subscription != null && subscription.executor == executor) {
+          group[k++] = subscription;
+          idle.set(j, null);
+        }
+      }
+      executor.execute(() -> {
+        for (Subscription subscription : group) subscription.drain();
+      });
+    }
+    idle.clear();
+  }
+
+  @Override
+  public int subscribe(@NonNull String topic, @NonNull Executor executor, @NonNull Subscriber subscriber) {
+    return add(Conditions.checkNotNull(topic, "topic"), false, executor, subscriber);
+  }
+
+  @Override
+  public int subscribePattern(@NonNull String pattern, @NonNull Executor executor,
+                              @NonNull Subscriber subscriber) {
+    TopicIndex.checkPattern(Conditions.checkNotNull(pattern, "pattern"));
+    return add(pattern, true, executor, subscriber);
+  }
+
+  /**
+   * @param topic      topic or pattern
+   * @param pattern    true if the topic is a pattern
+   * @param executor   executor the subscriber is called on
+   * @param subscriber subscriber
+   * @return id of the subscription
+   */
+  private int add(String topic, boolean pattern, Executor executor, Subscriber subscriber) {
+    Subscription subscription = newSubscription(ids.incrementAndGet(), topic, pattern,
+        Conditions.checkNotNull(executor, "executor"), Conditions.checkNotNull(subscriber, "subscriber"));
+    subscriptions.put(subscription.id, subscription);
+    Retained retained = pattern || sticky.isEmpty() ? null : sticky.get(topic);
+    if (retained == null) index.add(subscription);
+    else synchronized (retained) {
+      index.add(subscription);
+      // scheduled right away since a blocking offer waits for the drain
+      for (Message message : retained.messages())
+        if (subscription.offer(message)) subscription.executor.execute(subscription);
+    }
+    return subscription.id;
+  }
+
+  @Override
+  public void sticky(@NonNull String topic, int retain) {
+    Conditions.checkNotNull(topic, "topic");
+    if (retain < 1) {
+      Retained removed = sticky.remove(topic);
+      if (removed != null) synchronized (removed) {
+        removed.resize(0);
+      }
+      return;
+    }
+    Retained current = sticky.get(topic);
+    if (current != null) synchronized (current) {
+      current.resize(retain);
+    }
+    else sticky.putIfAbsent(topic, new Retained(retain));
+  }
+
+  /**
+   * @param id         id of the subscription
+   * @param topic      topic or pattern
+   * @param pattern    true if the topic is a pattern
+   * @param executor   executor the subscriber is called on
+   * @param subscriber subscriber
+   * @return subscription holding the messages waiting for the subscriber
+   */
+  Subscription newSubscription(int id, String topic, boolean pattern, Executor executor,
+                               Subscriber subscriber) {
+    return new QueueSubscription(id, topic, pattern, executor, subscriber);
+  }
+
+  @Override
+  public void unsubscribe(int id) {
+    Subscription subscription = subscriptions.remove(id);
+    if (subscription == null) return;
+    subscription.cancel();
+    index.remove(subscription);
+  }
+
+  @Override
+  public void clear() {
+    for (Subscription subscription : subscriptions.values()) subscription.cancel();
+    subscriptions.clear();
+    index.clear();
+    for (Retained retained : sticky.values()) synchronized (retained) {
+      retained.resize(0);
+    }
+    sticky.clear();
+  }
+
+  /**
+   * lists reused by the sends of a thread, a send from a subscriber called on the same
+   * thread finds them taken and uses its own
+   */
+  private static final class Buffers {
+    /**
+     *
+     */
+    final ArrayList<Subscription> matches = new ArrayList<>();
+    /**
+     *
+     */
+    final ArrayList<Subscription> idle = new ArrayList<>();
+    /**
+     *
+     */
+    boolean taken;
+
+    /**
+     * @return buffers of the current thread, or new ones if they are taken
+     */
+    static Buffers take() {
+      Buffers current = buffers.get();
+      if (current.taken) return new Buffers();
+      current.taken = true;
+      return current;
+    }
+
+    /**
+     * hands the buffers back once the send is done
+     */
+    void release() {
+      matches.clear();
+      idle.clear();
+      taken = false;
+    }
+  }
+
+  /**
+   * last messages of a sticky topic in a bounded ring, guarded by itself
+   */
+  private static final class Retained {
+    /**
+     * kept messages, the oldest at {@link #head}
+     */
+    private Message[] ring;
+    /**
+     *
+     */
+    private int head;
+    /**
+     *
+     */
+    private int count;
+
+    Retained(int retain) {
+      ring = new Message[retain];
+    }
+
+    /**
+     * @param message message to keep, retained, replacing the oldest one once full
+     */
+    void add(Message message) {
+      if (ring.length == 0) return;
+      message.retain();
+      if (count < ring.length) ring[(head + count++) % ring.length] = message;
+      else {
+        ring[head].recycle();
+        ring[head] = message;
+        head = (head + 1) % ring.length;
+      }
+    }
+
+    /**
+     * @return kept messages, oldest first
+     */
+    Message[] messages() {
+      Message[] messages = new Message[count];
+      for (int i = 0; i < count; i++) messages[i] = ring[(head + i) % ring.length];
+      return messages;
+    }
+
+    /**
+     * @param retain number of messages to keep, the newest are kept when shrinking and
+     *               the others recycled
+     */
+    void resize(int retain) {
+      Message[] messages = messages();
+      ring = new Message[retain];
+      head = 0;
+      count = 0;
+      int dropped = Math.max(0, messages.length - retain);
+      for (int i = 0; i < messages.length; i++) {
+        if (i >= dropped) add(messages[i]);
+        messages[i].recycle();
+      }
+    }
+  }
+}
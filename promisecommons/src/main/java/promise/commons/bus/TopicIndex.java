@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.bus;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * finds the subscriptions of a topic, exact topics are looked up in a map of copy on
+ * write arrays and patterns are matched segment by segment through a trie, which is
+ * skipped entirely while nobody subscribed to a pattern, lookups take no lock
+ */
+final class TopicIndex {
+  /**
+   *
+   */
+  private static final Subscription[] EMPTY = new Subscription[0];
+  /**
+   * separates the segments of a topic
+   */
+  private static final String SEPARATOR = "/";
+  /**
+   * pattern segment matching any one segment
+   */
+  private static final String ANY_SEGMENT = "*";
+  /**
+   * last pattern segment matching any remaining segments
+   */
+  private static final String ANY_REST = "#";
+  /**
+   *
+   */
+  private final ConcurrentHashMap<String, Subscription[]> exact = new ConcurrentHashMap<>();
+  /**
+   *
+   */
+  private final Node root = new Node();
+  /**
+   * number of pattern subscriptions
+   */
+  private volatile int patterns;
+
+  /**
+   * @param pattern pattern to check
+   * @throws IllegalArgumentException if '#' is not the last segment
+   */
+  static void checkPattern(String pattern) {
+    String[] segments = pattern.split(SEPARATOR, -1);
+    for (int i = 0; i < segments.length - 1; i++)
+      if (ANY_REST.equals(segments[i]))
+        throw new IllegalArgumentException("'#' must be the last segment of " + pattern);
+  }
+
+  /**
+   * @param subscription subscription to index
+   */
+  synchronized void add(Subscription subscription) {
+    if (!subscription.pattern) {
+      Subscription[] current = exact.get(subscription.topic);
+      exact.put(subscription.topic, append(current != null ? current : EMPTY, subscription));
+      return;
+    }
+    Node node = root;
+    String[] segments = subscription.topic.split(SEPARATOR, -1);
+    for (String segment : segments) {
+      if (ANY_REST.equals(segment)) {
+        node.rest = append(node.rest, subscription);
+        patterns++;
+        return;
+      }
+      if (ANY_SEGMENT.equals(segment)) {
+        if (node.any == null) node.any = new Node();
+        node = node.any;
+      } else {
+        Node child = node.children.get(segment);
+        if (child == null) node.children.put(segment, child = new Node());
+        node = child;
+      }
+    }
+    node.here = append(node.here, subscription);
+    patterns++;
+  }
+
+  /**
+   * @param subscription subscription to drop
+   */
+  synchronized void remove(Subscription subscription) {
+    if (!subscription.pattern) {
+      Subscription[] current = exact.get(subscription.topic);
+      if (current == null) return;
+      Subscription[] removed = without(current, subscription);
+      if (removed.length == 0) exact.remove(subscription.topic);
+      else exact.put(subscription.topic, removed);
+      return;
+    }
+    if (remove(root, subscription.topic.split(SEPARATOR, -1), 0, subscription)) patterns--;
+  }
+
+  /**
+   * @param node         node the segment is looked up in
+   * @param segments     segments of the pattern
+   * @param index        index of the segment
+   * @param subscription subscription to drop
+   * @return true if the subscription was found
+   */
+  private boolean remove(Node node, String[] segments, int index, Subscription subscription) {
+    if (index == segments.length) return drop(node, subscription, false);
+    String segment = segments[index];
+    if (ANY_REST.equals(segment)) return drop(node, subscription, true);
+    Node child = ANY_SEGMENT.equals(segment) ? node.any : node.children.get(segment);
+    if (child == null || !remove(child, segments, index + 1, subscription)) return false;
+    // prune nodes left without subscriptions so short lived patterns do not pile up
+    if (child.isEmpty()) {
+      if (ANY_SEGMENT.equals(segment)) node.any = null;
+      else node.children.remove(segment);
+    }
+    return true;
+  }
+
+  /**
+   * @param node         node holding the subscription
+   * @param subscription subscription to drop
+   * @param rest         true if it matches the remaining segments
+   * @return true if the subscription was found
+   */
+  private static boolean drop(Node node, Subscription subscription, boolean rest) {
+    Subscription[] current = rest ? node.rest : node.here;
+    Subscription[] removed = without(current, subscription);
+    if (removed == current) return false;
+    if (rest) node.rest = removed;
+    else node.here = removed;
+    return true;
+  }
+
+  /**
+   * @param topic   topic of a message
+   * @param matches collects the subscriptions of the topic
+   */
+  void match(String topic, ArrayList<Subscription> matches) {
+    Subscription[] subscriptions = exact.get(topic);
+    if (subscriptions != null) for (Subscription subscription : subscriptions) matches.add(subscription);
+    if (patterns > 0) match(root, topic.split(SEPARATOR, -1), 0, matches);
+  }
+
+  /**
+   * @param node     node the segment is looked up in
+   * @param segments segments of the topic
+   * @param index    index of the segment
+   * @param matches  collects the subscriptions of the topic
+   */
+  private static void match(Node node, String[] segments, int index, ArrayList<Subscription> matches) {
+    for (Subscription subscription : node.rest) matches.add(subscription);
+    if (index == segments.length) {
+      for (Subscription subscription : node.here) matches.add(subscription);
+      return;
+    }
+    Node child = node.children.get(segments[index]);
+    if (child != null) match(child, segments, index + 1, matches);
+    Node any = node.any;
+    if (any != null) match(any, segments, index + 1, matches);
+  }
+
+  /**
+   * removes every subscription
+   */
+  synchronized void clear() {
+    exact.clear();
+    root.children.clear();
+    root.any = null;
+    root.here = EMPTY;
+    root.rest = EMPTY;
+    patterns = 0;
+  }
+
+  /**
+   * @param array        subscriptions
+   * @param subscription subscription to add
+   * @return copy of the array with the subscription at the end
+   */
+  private static Subscription[] append(Subscription[] array, Subscription subscription) {
+    Subscription[] appended = new Subscription[array.length + 1];
+    System.arraycopy(array, 0, appended, 0, array.length);
+    appended[array.length] = subscription;
+    return appended;
+  }
+
+  /**
+   * @param array        subscriptions
+   * @param subscription subscription to remove
+   * @return copy of the array without the subscription, the same array if it was absent
+   */
+  private static Subscription[] without(Subscription[] array, Subscription subscription) {
+    for (int i = 0; i < array.length; i++)
+      if (array[i] == subscription) {
+        if (array.length == 1) return EMPTY;
+        Subscription[] removed = new Subscription[array.length - 1];
+        System.arraycopy(array, 0, removed, 0, i);
+        System.arraycopy(array, i + 1, removed, i, array.length - i - 1);
+        return removed;
+      }
+    return array;
+  }
+
+  /**
+   * segment of the pattern trie
+   */
+  private static final class Node {
+    /**
+     * children by literal segment
+     */
+    final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+    /**
+     * child for a '*' segment
+     */
+    volatile Node any;
+    /**
+     * subscriptions of patterns ending at this node
+     */
+    volatile Subscription[] here = EMPTY;
+    /**
+     * subscriptions of patterns ending with '#' after this node
+     */
+    volatile Subscription[] rest = EMPTY;
+
+    boolean isEmpty() {
+      return here.length == 0 && rest.length == 0 && any == null && children.isEmpty();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import promise.commons.model.List;
+import promise.commons.tx.PromiseResult;
+import promise.commons.util.Conditions;
+
+/**
+ * runs callables in parallel on an executor with at most a given number running at once,
+ * and delivers their results in the order of the callables, each worker takes the next
+ * callable when it is done with one so no more tasks than the concurrency are submitted
+ */
+public final class FanOut implements Runnable {
+  /**
+   *
+   */
+  private final Callable<?>[] actions;
+  /**
+   * results by index of the callable, sized up front
+   */
+  private final Object[] results;
+  /**
+   *
+   */
+  private final boolean failFast;
+  /**
+   *
+   */
+  private final PromiseResult<List<?>, Throwable> promiseResult;
+  /**
+   * index of the next callable to run
+   */
+  private final AtomicInteger next = new AtomicInteger();
+  /**
+   * callables not finished yet, the worker finishing the last one delivers
+   */
+  private final AtomicInteger remaining;
+  /**
+   * set once the result or an error has been delivered
+   */
+  private final AtomicInteger done = new AtomicInteger();
+  /**
+   * first error, reported once every callable finished unless failing fast
+   */
+  private volatile Throwable error;
+
+  private FanOut(Callable<?>[] actions, boolean failFast,
+                 PromiseResult<List<?>, Throwable> promiseResult) {
+    this.actions = actions;
+    this.results = new Object[actions.length];
+    this.failFast = failFast;
+    this.promiseResult = promiseResult;
+    this.remaining = new AtomicInteger(actions.length);
+  }
+
+  /**
+   * @param executor      executor the callables run on
+   * @param actions       callables, their results are delivered in this order
+   * @param concurrency   callables running at once at most
+   * @param failFast      true to deliver the first error right away and skip the callables
+   *                      not started yet, false to run every callable before delivering it
+   * @param promiseResult receives the results on the thread that finished last
+   * @return handle to cancel the callables not started yet
+   */
+  @NonNull
+  public static FanOut start(@NonNull Executor executor,
+                             @NonNull java.util.List<? extends Callable<?>> actions,
+                             int concurrency, boolean failFast,
+                             @NonNull PromiseResult<List<?>, Throwable> promiseResult) {
+    if (concurrency < 1) throw new IllegalArgumentException("concurrency must be more than zero");
+    Conditions.checkNotNull(executor, "executor");
+    FanOut fanOut = new FanOut(Conditions.checkNotNull(actions, "actions").toArray(new Callable<?>[0]),
+        failFast, Conditions.checkNotNull(promiseResult, "promiseResult"));
+    if (fanOut.actions.length == 0) fanOut.complete();
+    else for (int i = Math.min(concurrency, fanOut.actions.length); i > 0; i--) executor.execute(fanOut);
+    return fanOut;
+  }
+
+  /**
+   * runs callables until none are left
+   */
+  @Override
+  public void run() {
+    int index;
+    while (done.get() == 0 && (index = next.getAndIncrement()) < actions.length) {
+      try {
+        results[index] = actions[index].call();
+      } catch (Throwable e) {
+        if (error == null) error = e;
+        if (failFast) fail(e);
+      }
+      if (remaining.decrementAndGet() == 0) complete();
+    }
+  }
+
+  /**
+   * stops starting callables and delivers a {@link CancellationException}, callables
+   * already running finish and their results are dropped
+   *
+   * @return false if the results or an error were delivered already
+   */
+  public boolean cancel() {
+    return fail(new CancellationException("fan out cancelled"));
+  }
+
+  /**
+   * @return true once the results or an error were delivered
+   */
+  public boolean isDone() {
+    return done.get() != 0;
+  }
+
+  /**
+   * @param e error to deliver
+   * @return true if it was delivered
+   */
+  private boolean fail(Throwable e) {
+    if (!done.compareAndSet(0, 1)) return false;
+    promiseResult.error(e);
+    return true;
+  }
+
+  /**
+   * delivers the results, or the first error
+   */
+  private void complete() {
+    Throwable error = this.error;
+    if (error != null) fail(error);
+    else if (done.compareAndSet(0, 1)) promiseResult.response(List.fromArray(results));
+  }
+}
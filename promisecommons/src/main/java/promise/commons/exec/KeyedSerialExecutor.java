@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import promise.commons.data.log.LogUtil;
+import promise.commons.util.Conditions;
+
+/**
+ * runs tasks with the same key one after another in submission order, and tasks with
+ * different keys in parallel on a shared executor, keys are hashed onto a fixed number
+ * of stripes each draining its own lock free queue, so no thread is held per key and
+ * keys sharing a stripe are ordered together
+ */
+public class KeyedSerialExecutor {
+  /**
+   *
+   */
+  private static final String TAG = LogUtil.makeTag(KeyedSerialExecutor.class);
+  /**
+   * tasks a stripe runs in one go before giving other tasks on the executor a turn
+   */
+  private static final int BATCH = 64;
+  /**
+   *
+   */
+  private final Executor executor;
+  /**
+   *
+   */
+  private final Stripe[] stripes;
+
+  /**
+   * @param executor executor the stripes are drained on
+   * @param stripes  number of stripes, rounded up to a power of two, more stripes mean
+   *                 fewer unrelated keys waiting on each other
+   */
+  public KeyedSerialExecutor(@NonNull Executor executor, int stripes) {
+    if (stripes < 1) throw new IllegalArgumentException("stripes must be more than zero");
+    this.executor = executor;
+    int size = Integer.highestOneBit(stripes);
+    if (size < stripes) size <<= 1;
+    this.stripes = new Stripe[size];
+    for (int i = 0; i < size; i++) this.stripes[i] = new Stripe();
+  }
+
+  /**
+   * @param key      key the task is ordered by
+   * @param runnable task, an exception it throws is logged and does not stop the key, an
+   *                 error is rethrown once the tasks after it are handed to a new drain
+   */
+  public void execute(@NonNull Object key, @NonNull Runnable runnable) {
+    stripe(Conditions.checkNotNull(key, "key")).submit(Conditions.checkNotNull(runnable));
+  }
+
+  /**
+   * @param key key the tasks are ordered by
+   * @return executor running its tasks in order under the key, for instance to pass to
+   * {@link promise.commons.tx.Promise#thenOn(Executor, promise.commons.tx.Callback2)}
+   */
+  @NonNull
+  public Executor executor(@NonNull final Object key) {
+    final Stripe stripe = stripe(Conditions.checkNotNull(key, "key"));
+    return runnable -> stripe.submit(Conditions.checkNotNull(runnable));
+  }
+
+  /**
+   * @return number of tasks waiting in every stripe
+   */
+  public int getQueueDepth() {
+    int depth = 0;
+    for (Stripe stripe : stripes) depth += stripe.queue.size();
+    return depth;
+  }
+
+  /**
+   * @param key
+   * @return stripe the key is hashed onto
+   */
+  private Stripe stripe(Object key) {
+    int hash = key.hashCode();
+    // spread the high bits so keys differing only there land on different stripes
+    hash ^= hash >>> 16;
+    return stripes[hash & (stripes.length - 1)];
+  }
+
+  /**
+   * queue of the tasks of the keys hashed onto it, drained by at most one task on the
+   * executor at a time
+   */
+  private final class Stripe implements Runnable {
+    /**
+     *
+     */
+    final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * number of submissions not yet seen by the drain, the drain is scheduled when it
+     * goes up from zero
+     */
+    final AtomicInteger wip = new AtomicInteger();
+
+    void submit(Runnable runnable) {
+      queue.offer(runnable);
+      if (wip.getAndIncrement() != 0) return;
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        // nothing drains the stripe, so a later submission has to schedule it again
+        discard(1);
+        throw e;
+      }
+    }
+
+    @Override
+    public void run() {
+      int missed = 1;
+      int ran = 0;
+      for (; ; ) {
+        Runnable runnable;
+        while ((runnable = queue.poll()) != null) {
+          try {
+            runnable.run();
+          } catch (RuntimeException e) {
+            LogUtil.e(TAG, e, "serial task failed");
+          } catch (Error e) {
+            // the tasks behind it still run, in a new drain
+            if (!resume()) discard(missed);
+            throw e;
+          }
+          if (++ran >= BATCH && !queue.isEmpty()) {
+            if (resume()) return;
+            // rejected, so this drain keeps going
+            ran = 0;
+          }
+        }
+        missed = wip.addAndGet(-missed);
+        if (missed == 0) return;
+      }
+    }
+
+    /**
+     * hands the drain over to a new task on the executor, the caller has to stop draining
+     * if it returns true
+     *
+     * @return false if the executor rejected the task
+     */
+    private boolean resume() {
+      try {
+        executor.execute(this);
+        return true;
+      } catch (RejectedExecutionException e) {
+        return false;
+      }
+    }
+
+    /**
+     * drops the waiting tasks of a drain that cannot be scheduled, so that the next
+     * submission schedules the stripe again
+     *
+     * @param missed submissions seen by the drain
+     */
+    private void discard(int missed) {
+      for (; ; ) {
+        int dropped = 0;
+        while (queue.poll() != null) dropped++;
+        if (dropped > 0) LogUtil.e(TAG, "dropped ", dropped, " serial tasks the executor rejected");
+        missed = wip.addAndGet(-missed);
+        if (missed == 0) return;
+      }
+    }
+  }
+}
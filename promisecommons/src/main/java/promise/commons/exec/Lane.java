@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+/**
+ * kind of work a task does, used to pick the executor it runs on
+ */
+public enum Lane {
+  /**
+   * cpu bound work such as parsing, as many threads as there are cores
+   */
+  COMPUTE,
+  /**
+   * blocking work such as disk and network access, grows up to a bounded number of
+   * threads and shrinks when idle
+   */
+  IO,
+  /**
+   * one thread, tasks run one after another in the order they were submitted
+   */
+  SERIAL
+}
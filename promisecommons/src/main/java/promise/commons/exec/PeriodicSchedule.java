@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import androidx.annotation.NonNull;
+
+/**
+ * when a {@link PeriodicTask} runs, at a fixed rate measured from its first run or with a
+ * fixed delay between the end of a run and the start of the next, optionally pushed back
+ * by a random jitter so that jobs started together do not keep running together
+ */
+public final class PeriodicSchedule {
+  /**
+   *
+   */
+  private final long initialDelayMillis;
+  /**
+   *
+   */
+  private final long periodMillis;
+  /**
+   *
+   */
+  private final long jitterMillis;
+  /**
+   *
+   */
+  private final boolean fixedDelay;
+
+  private PeriodicSchedule(@NonNull Builder builder) {
+    initialDelayMillis = builder.initialDelayMillis;
+    periodMillis = builder.periodMillis;
+    jitterMillis = builder.jitterMillis;
+    fixedDelay = builder.fixedDelay;
+  }
+
+  @NonNull
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @param periodMillis time between the starts of two runs
+   * @return fixed rate schedule starting right away
+   */
+  @NonNull
+  public static PeriodicSchedule fixedRate(long periodMillis) {
+    return newBuilder().periodMillis(periodMillis).build();
+  }
+
+  /**
+   * @param delayMillis time between the end of a run and the start of the next
+   * @return fixed delay schedule starting right away
+   */
+  @NonNull
+  public static PeriodicSchedule fixedDelay(long delayMillis) {
+    return newBuilder().periodMillis(delayMillis).fixedDelay(true).build();
+  }
+
+  /**
+   * @return time before the first run
+   */
+  public long getInitialDelayMillis() {
+    return initialDelayMillis;
+  }
+
+  /**
+   * @return period of a fixed rate, or delay between runs of a fixed delay
+   */
+  public long getPeriodMillis() {
+    return periodMillis;
+  }
+
+  /**
+   * @return largest random time a run is pushed back by
+   */
+  public long getJitterMillis() {
+    return jitterMillis;
+  }
+
+  /**
+   * @return true if the period is counted from the end of the previous run
+   */
+  public boolean isFixedDelay() {
+    return fixedDelay;
+  }
+
+  @NonNull
+  @Override
+  public String toString() {
+    return "PeriodicSchedule{" +
+        (fixedDelay ? "fixedDelay=" : "fixedRate=") + periodMillis +
+        ", initialDelay=" + initialDelayMillis +
+        ", jitter=" + jitterMillis +
+        '}';
+  }
+
+  public static final class Builder {
+    long initialDelayMillis;
+    long periodMillis = -1;
+    long jitterMillis;
+    boolean fixedDelay;
+
+    private Builder() {
+    }
+
+    /**
+     * @param val time before the first run, defaults to 0
+     */
+    @NonNull
+    public Builder initialDelayMillis(long val) {
+      if (val < 0) throw new IllegalArgumentException("initialDelayMillis must not be negative");
+      initialDelayMillis = val;
+      return this;
+    }
+
+    /**
+     * @param val period of a fixed rate, or delay between runs of a fixed delay, required
+     */
+    @NonNull
+    public Builder periodMillis(long val) {
+      if (val < 1) throw new IllegalArgumentException("periodMillis must be more than zero");
+      periodMillis = val;
+      return this;
+    }
+
+    /**
+     * @param val largest random time each run is pushed back by, defaults to 0, must be
+     *            less than the period
+     */
+    @NonNull
+    public Builder jitterMillis(long val) {
+      if (val < 0) throw new IllegalArgumentException("jitterMillis must not be negative");
+      jitterMillis = val;
+      return this;
+    }
+
+    /**
+     * @param val true to count the period from the end of the previous run, false to run
+     *            at a fixed rate, defaults to false
+     */
+    @NonNull
+    public Builder fixedDelay(boolean val) {
+      fixedDelay = val;
+      return this;
+    }
+
+    @NonNull
+    public PeriodicSchedule build() {
+      if (periodMillis < 1) throw new IllegalArgumentException("periodMillis is required");
+      if (jitterMillis >= periodMillis)
+        throw new IllegalArgumentException("jitterMillis must be less than periodMillis");
+      return new PeriodicSchedule(this);
+    }
+  }
+}
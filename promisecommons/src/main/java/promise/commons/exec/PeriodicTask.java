@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import promise.commons.data.log.LogUtil;
+import promise.commons.util.Conditions;
+
+/**
+ * runnable run over and over following a {@link PeriodicSchedule}, a shared timer only
+ * hands each due run over to an executor so any number of periodic tasks cost no thread
+ * while idle, a fixed rate run that comes due while the previous one is still running
+ * is skipped instead of queued, and runs missed while the process was paused collapse
+ * into one, a runnable that throws is logged and keeps its schedule
+ */
+public final class PeriodicTask {
+  /**
+   *
+   */
+  private static final String TAG = LogUtil.makeTag(PeriodicTask.class);
+  /**
+   *
+   */
+  private static final Random random = new Random();
+  /**
+   *
+   */
+  private final ScheduledExecutorService timer;
+  /**
+   *
+   */
+  private final Executor executor;
+  /**
+   *
+   */
+  private final Runnable runnable;
+  /**
+   *
+   */
+  private final PeriodicSchedule schedule;
+  /**
+   * true while a run is handed to the executor or running
+   */
+  private final AtomicBoolean running = new AtomicBoolean();
+  /**
+   * {@link System#nanoTime()} the fixed rate is counted from
+   */
+  private final long origin;
+  /**
+   *
+   */
+  private final Runnable fire = this::fire;
+  /**
+   *
+   */
+  private final Runnable run = this::run;
+  /**
+   * pending timer entry, replaced for every run
+   */
+  private volatile ScheduledFuture<?> next;
+  /**
+   *
+   */
+  private volatile boolean cancelled;
+  /**
+   *
+   */
+  private volatile long runs;
+  /**
+   * fixed rate runs skipped because the previous run was still going
+   */
+  private volatile long skipped;
+
+  private PeriodicTask(ScheduledExecutorService timer, Executor executor, Runnable runnable,
+                       PeriodicSchedule schedule) {
+    this.timer = timer;
+    this.executor = executor;
+    this.runnable = runnable;
+    this.schedule = schedule;
+    this.origin = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(schedule.getInitialDelayMillis());
+  }
+
+  /**
+   * @param timer    timer counting down to each run, it only hands runs over
+   * @param executor executor the runnable runs on, it must not run tasks on the submitting
+   *                 thread, the runs stop once it is shut down
+   * @param runnable runnable
+   * @param schedule when the runnable runs
+   * @return handle to stop the runs
+   */
+  @NonNull
+  public static PeriodicTask start(@NonNull ScheduledExecutorService timer,
+                                   @NonNull Executor executor, @NonNull Runnable runnable,
+                                   @NonNull PeriodicSchedule schedule) {
+    PeriodicTask task = new PeriodicTask(Conditions.checkNotNull(timer, "timer"),
+        Conditions.checkNotNull(executor, "executor"), Conditions.checkNotNull(runnable, "runnable"),
+        Conditions.checkNotNull(schedule, "schedule"));
+    task.schedule(schedule.getInitialDelayMillis() + task.jitter());
+    return task;
+  }
+
+  /**
+   * stops later runs, a run already going finishes
+   */
+  public void cancel() {
+    cancelled = true;
+    ScheduledFuture<?> next = this.next;
+    if (next != null) next.cancel(false);
+  }
+
+  /**
+   * @return true once cancelled
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return number of runs started
+   */
+  public long getRuns() {
+    return runs;
+  }
+
+  /**
+   * @return number of fixed rate runs skipped because the previous run was still going
+   */
+  public long getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * @return when the runnable runs
+   */
+  @NonNull
+  public PeriodicSchedule getSchedule() {
+    return schedule;
+  }
+
+  /**
+   * @param delayMillis time until the next run is handed over
+   */
+  private void schedule(long delayMillis) {
+    if (cancelled) return;
+    try {
+      next = timer.schedule(fire, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      cancelled = true;
+      return;
+    }
+    // a cancel racing the assignment may have missed the new entry
+    if (cancelled) next.cancel(false);
+  }
+
+  /**
+   * called on the timer when a run is due
+   */
+  private void fire() {
+    if (cancelled) return;
+    if (executor instanceof ExecutorService && ((ExecutorService) executor).isShutdown()) {
+      LogUtil.e(TAG, "periodic task stopped, its executor is shut down");
+      cancel();
+      return;
+    }
+    boolean fixedRate = !schedule.isFixedDelay();
+    if (fixedRate) schedule(untilNextPeriod() + jitter());
+    if (!running.compareAndSet(false, true)) {
+      skipped++;
+      return;
+    }
+    try {
+      executor.execute(run);
+    } catch (RejectedExecutionException e) {
+      running.set(false);
+      LogUtil.e(TAG, e, "periodic task stopped, its executor is shut down");
+      cancel();
+    }
+  }
+
+  /**
+   * called on the executor
+   */
+  private void run() {
+    try {
+      if (cancelled) return;
+      runs++;
+      runnable.run();
+    } catch (RuntimeException e) {
+      LogUtil.e(TAG, e, "periodic task failed");
+    } finally {
+      running.set(false);
+      if (schedule.isFixedDelay()) schedule(schedule.getPeriodMillis() + jitter());
+    }
+  }
+
+  /**
+   * @return time until the next multiple of the period from the origin, runs missed on
+   * the way are dropped
+   */
+  private long untilNextPeriod() {
+    long period = TimeUnit.MILLISECONDS.toNanos(schedule.getPeriodMillis());
+    long elapsed = System.nanoTime() - origin;
+    long nextStart = (elapsed / period + 1) * period;
+    // rounded up so the timer never fires just before the boundary
+    return TimeUnit.NANOSECONDS.toMillis(nextStart - elapsed + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+  }
+
+  /**
+   * @return random push back of a run
+   */
+  private long jitter() {
+    long jitter = schedule.getJitterMillis();
+    return jitter == 0 ? 0 : (long) (random.nextDouble() * (jitter + 1));
+  }
+}
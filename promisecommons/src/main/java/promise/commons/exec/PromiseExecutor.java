@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * named thread pool that keeps count of how deep its queue got and how many tasks it
+ * rejected, idle threads exit after the keep alive so an unused pool holds no threads.
+ * a task is never run on the thread submitting it, that thread may be the timer or the ui thread
+ */
+public class PromiseExecutor extends ThreadPoolExecutor {
+  /**
+   * time an idle thread waits for a task before exiting
+   */
+  private static final long KEEP_ALIVE_SECONDS = 30;
+  /**
+   *
+   */
+  private final String name;
+  /**
+   *
+   */
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  /**
+   *
+   */
+  private final AtomicLong rejectedCount = new AtomicLong();
+  /**
+   * takes the tasks turned away by the full queue, null if they go to the rejection policy
+   */
+  private final PromiseExecutor overflow;
+
+  /**
+   * @param name          prefix of the thread names
+   * @param threads       maximum number of threads
+   * @param queueCapacity maximum number of queued tasks
+   * @param rejection     called with the tasks submitted while the queue is full
+   */
+  public PromiseExecutor(@NonNull String name, int threads, int queueCapacity,
+                         @NonNull RejectedExecutionHandler rejection) {
+    this(name, threads, new LinkedBlockingQueue<Runnable>(queueCapacity), rejection, null);
+  }
+
+  /**
+   * @param name      prefix of the thread names
+   * @param threads   maximum number of threads
+   * @param queue     queue of the tasks waiting for a thread
+   * @param rejection called with the tasks the queue and the overflow do not take
+   * @param overflow  pool taking the tasks the full queue turns away, may be null
+   */
+  private PromiseExecutor(final String name, int threads, BlockingQueue<Runnable> queue,
+                          final RejectedExecutionHandler rejection,
+                          final PromiseExecutor overflow) {
+    // core and maximum size are equal so threads are added before tasks are queued
+    super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(@NonNull Runnable runnable) {
+        return new Thread(runnable, name + "-" + count.incrementAndGet());
+      }
+    }, rejection);
+    this.name = name;
+    this.overflow = overflow;
+    allowCoreThreadTimeOut(true);
+    setRejectedExecutionHandler((runnable, executor) -> {
+      rejectedCount.incrementAndGet();
+      if (overflow != null && !isShutdown()) overflow.execute(runnable);
+      else rejection.rejectedExecution(runnable, executor);
+    });
+  }
+
+  /**
+   * @param name          prefix of the thread names
+   * @param threads       maximum number of threads
+   * @param queueCapacity maximum number of queued tasks
+   * @return pool spilling a full queue to a smaller pool with an unbounded queue,
+   * tasks submitted after shutdown are rejected with a {@link java.util.concurrent.RejectedExecutionException}
+   */
+  private static PromiseExecutor overflowing(String name, int threads, int queueCapacity) {
+    PromiseExecutor overflow = new PromiseExecutor(name + "-overflow", Math.max(1, threads / 4),
+        new LinkedBlockingQueue<Runnable>(), new AbortPolicy(), null);
+    return new PromiseExecutor(name, threads, new LinkedBlockingQueue<Runnable>(queueCapacity),
+        new AbortPolicy(), overflow);
+  }
+
+  /**
+   * @param threads       number of threads, usually the number of cores
+   * @param queueCapacity maximum number of queued tasks
+   * @return pool for cpu bound work, a full queue spills to an overflow pool
+   */
+  @NonNull
+  public static PromiseExecutor compute(int threads, int queueCapacity) {
+    return overflowing("promise-compute", threads, queueCapacity);
+  }
+
+  /**
+   * @param threads       maximum number of threads
+   * @param queueCapacity maximum number of queued tasks
+   * @return pool for blocking work, a full queue spills to an overflow pool
+   */
+  @NonNull
+  public static PromiseExecutor io(int threads, int queueCapacity) {
+    return overflowing("promise-io", threads, queueCapacity);
+  }
+
+  /**
+   * @return single thread running tasks in submission order, the queue is unbounded
+   * since running a task elsewhere would break the order
+   */
+  @NonNull
+  public static PromiseExecutor serial() {
+    return new PromiseExecutor("promise-serial", 1, new LinkedBlockingQueue<Runnable>(),
+        new AbortPolicy(), null);
+  }
+
+  @Override
+  public void execute(@NonNull Runnable command) {
+    super.execute(command);
+    int depth = getQueue().size();
+    int max;
+    while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) ;
+  }
+
+  @Override
+  public void shutdown() {
+    super.shutdown();
+    if (overflow != null) overflow.shutdown();
+  }
+
+  /**
+   * @return tasks that never started, including the ones waiting in the overflow pool
+   */
+  @NonNull
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> drained = super.shutdownNow();
+    if (overflow != null) drained.addAll(overflow.shutdownNow());
+    return drained;
+  }
+
+  /**
+   * @return prefix of the thread names
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return number of tasks waiting for a thread
+   */
+  public int getQueueDepth() {
+    return getQueue().size();
+  }
+
+  /**
+   * @return highest number of tasks seen waiting for a thread
+   */
+  public int getMaxQueueDepth() {
+    return maxQueueDepth.get();
+  }
+
+  /**
+   * @return number of tasks turned away by the full queue or after shutdown
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  @NonNull
+  @Override
+  public String toString() {
+    return "PromiseExecutor{" +
+        "name='" + name + '\'' +
+        ", threads=" + getPoolSize() +
+        ", active=" + getActiveCount() +
+        ", queueDepth=" + getQueueDepth() +
+        ", maxQueueDepth=" + getMaxQueueDepth() +
+        ", rejected=" + getRejectedCount() +
+        ", completed=" + getCompletedTaskCount() +
+        '}';
+  }
+}
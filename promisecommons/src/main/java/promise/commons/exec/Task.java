@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import promise.commons.tx.PromiseResult;
+
+/**
+ * callable run on an executor that hands its result to a {@link PromiseResult} on the
+ * thread that ran it, and leaves its {@link TaskRegistry} as soon as it is done, so a
+ * finished task is only held by whoever kept the handle
+ *
+ * @param <T> result type
+ */
+public final class Task<T> extends FutureTask<T> {
+  /**
+   *
+   */
+  private final PromiseResult<? super T, Throwable> promiseResult;
+  /**
+   * registry the task is in until done, null if it is in none
+   */
+  private final TaskRegistry registry;
+
+  @SuppressWarnings("unchecked")
+  private Task(Callable<? extends T> action, PromiseResult<? super T, Throwable> promiseResult,
+               TaskRegistry registry) {
+    super((Callable<T>) action);
+    this.promiseResult = promiseResult;
+    this.registry = registry;
+  }
+
+  /**
+   * @param executor      executor the action runs on
+   * @param registry      registry holding the task until it is done, may be null
+   * @param action        action
+   * @param promiseResult receives the result or the error, nothing once cancelled
+   * @param <T>           result type
+   * @return handle to cancel the task
+   */
+  @NonNull
+  public static <T> Task<T> start(@NonNull Executor executor, TaskRegistry registry,
+                                  @NonNull Callable<? extends T> action,
+                                  @NonNull PromiseResult<? super T, Throwable> promiseResult) {
+    Task<T> task = new Task<>(action, promiseResult, registry);
+    // registered first since the task may finish before execute returns
+    if (registry != null) registry.add(task);
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      task.setException(e);
+    }
+    return task;
+  }
+
+  /**
+   * fails a task that never started, such as one drained by a shutdown
+   *
+   * @param reason error handed to the result
+   */
+  void reject(@NonNull Throwable reason) {
+    setException(reason);
+  }
+
+  @Override
+  protected void done() {
+    if (registry != null) registry.remove(this);
+    if (isCancelled()) return;
+    T result;
+    try {
+      result = get();
+    } catch (ExecutionException e) {
+      promiseResult.error(e.getCause() != null ? e.getCause() : e);
+      return;
+    } catch (InterruptedException | CancellationException e) {
+      return;
+    }
+    promiseResult.response(result);
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * tasks not done yet, tasks remove themselves once done so the registry only grows with
+ * the tasks in flight, not with the tasks ever run
+ */
+public final class TaskRegistry {
+  /**
+   *
+   */
+  private final Set<Task<?>> tasks =
+      Collections.newSetFromMap(new ConcurrentHashMap<Task<?>, Boolean>());
+
+  /**
+   * @param task task not started yet
+   */
+  void add(Task<?> task) {
+    tasks.add(task);
+  }
+
+  /**
+   * @param task task that is done
+   */
+  void remove(Task<?> task) {
+    tasks.remove(task);
+  }
+
+  /**
+   * @return number of tasks not done yet
+   */
+  public int size() {
+    return tasks.size();
+  }
+
+  /**
+   * fails the tasks that never started with a {@link RejectedExecutionException},
+   * they are delivered to their results and leave the registry
+   *
+   * @param drained tasks returned by {@link java.util.concurrent.ExecutorService#shutdownNow()}
+   */
+  public void rejectAll(Collection<Runnable> drained) {
+    for (Runnable runnable : drained)
+      if (runnable instanceof Task)
+        ((Task<?>) runnable).reject(new RejectedExecutionException("executor was shut down"));
+  }
+
+  /**
+   * cancels every task not done yet, running tasks are interrupted
+   */
+  public void cancelAll() {
+    for (Task<?> task : tasks) task.cancel(true);
+  }
+}
@@ -16,22 +16,161 @@ package promise.commons.model;
 import androidx.annotation.NonNull;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+/**
+ * message sent on the bus, messages from {@link #obtain(String, Object)} and
+ * {@link #obtain(String, long)} are pooled and go back to the pool once every holder
+ * called {@link #recycle()}, sending one hands the reference of the sender to the bus,
+ * and a subscriber that keeps one past its callback has to {@link #retain()} it
+ */
 public class Message implements Serializable {
+  private static final long serialVersionUID = 1L;
+  /**
+   * pooled messages kept for reuse at most
+   */
+  private static final int MAX_POOL_SIZE = 256;
+  /**
+   *
+   */
+  private static final AtomicIntegerFieldUpdater<Message> REFS =
+      AtomicIntegerFieldUpdater.newUpdater(Message.class, "refs");
+  /**
+   *
+   */
+  private static final Object poolLock = new Object();
+  /**
+   * recycled messages linked through {@link #next}, guarded by {@link #poolLock}
+   */
+  private static Message pool;
+  /**
+   * guarded by {@link #poolLock}
+   */
+  private static int poolSize;
+
   private String sender;
   private Object message;
+  /**
+   * primitive payload of a pooled message, sent without boxing
+   */
+  private long value;
+  /**
+   * number of holders of a pooled message
+   */
+  private transient volatile int refs;
+  /**
+   * true if the message came from the pool
+   */
+  private transient boolean pooled;
+  /**
+   *
+   */
+  private transient Message next;
 
   public Message(String sender, Object message) {
     this.sender = sender;
     this.message = message;
   }
 
+  /**
+   * @param sender  sender
+   * @param message payload
+   * @return message from the pool, held once by the caller
+   */
+  @NonNull
+  public static Message obtain(String sender, Object message) {
+    Message obtained = obtain();
+    obtained.sender = sender;
+    obtained.message = message;
+    return obtained;
+  }
+
+  /**
+   * @param sender sender
+   * @param value  primitive payload read with {@link #value()}
+   * @return message from the pool, held once by the caller
+   */
+  @NonNull
+  public static Message obtain(String sender, long value) {
+    Message obtained = obtain();
+    obtained.sender = sender;
+    obtained.value = value;
+    return obtained;
+  }
+
+  /**
+   * @return recycled message, or a new one if the pool is empty
+   */
+  private static Message obtain() {
+    Message obtained = null;
+    synchronized (poolLock) {
+      if (pool != null) {
+        obtained = pool;
+        pool = obtained.next;
+        obtained.next = null;
+        poolSize--;
+      }
+    }
+    if (obtained == null) {
+      obtained = new Message(null, null);
+      obtained.pooled = true;
+    }
+    obtained.refs = 1;
+    return obtained;
+  }
+
+  /**
+   * adds a holder to a pooled message, does nothing for other messages
+   *
+   * @return this message
+   */
+  @NonNull
+  public Message retain() {
+    if (pooled && REFS.incrementAndGet(this) <= 1)
+      throw new IllegalStateException("message was already recycled");
+    return this;
+  }
+
+  /**
+   * drops a holder of a pooled message, the last one returns it to the pool after which
+   * it must not be used, does nothing for other messages
+   */
+  public void recycle() {
+    if (!pooled) return;
+    int refs = REFS.decrementAndGet(this);
+    if (refs > 0) return;
+    if (refs < 0) throw new IllegalStateException("message was recycled more than once");
+    sender = null;
+    message = null;
+    value = 0;
+    synchronized (poolLock) {
+      if (poolSize < MAX_POOL_SIZE) {
+        next = pool;
+        pool = this;
+        poolSize++;
+      }
+    }
+  }
+
+  /**
+   * @return this message, or for a pooled message a copy that stays valid once it is
+   * recycled, to hand the message to code that runs after the callback returns
+   */
+  @NonNull
+  public Message detach() {
+    if (!pooled) return this;
+    Message copy = new Message(sender, message);
+    copy.value = value;
+    return copy;
+  }
+
   @NonNull
   @Override
   public String toString() {
     return "Message{" +
         "sender='" + sender + '\'' +
         ", message=" + message +
+        (value != 0 ? ", value=" + value : "") +
         '}';
   }
 
@@ -42,4 +181,11 @@ public class Message implements Serializable {
   public Object message() {
     return message;
   }
+
+  /**
+   * @return primitive payload, zero unless obtained with {@link #obtain(String, long)}
+   */
+  public long value() {
+    return value;
+  }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.rx;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.exceptions.UndeliverableException;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+import promise.commons.AndroidPromise;
+import promise.commons.data.log.LogUtil;
+import promise.commons.exec.Lane;
+
+/**
+ * bridges promise execution to RxJava, which promise does not need, only load this
+ * class when RxJava is on the classpath, {@link #isAvailable()} tells
+ */
+public final class RxAdapter {
+  /**
+   *
+   */
+  private static final String TAG = LogUtil.makeTag(RxAdapter.class);
+
+  private RxAdapter() {
+  }
+
+  /**
+   * @return true if RxJava is on the classpath
+   */
+  public static boolean isAvailable() {
+    try {
+      Class.forName("io.reactivex.Observable", false, RxAdapter.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * logs errors RxJava could not deliver instead of crashing on them
+   */
+  public static void installErrorHandler() {
+    RxJavaPlugins.setErrorHandler(throwable -> {
+      if (throwable instanceof UndeliverableException)
+        LogUtil.e(TAG, "undeliverable error: ", throwable);
+      else Thread.currentThread().getUncaughtExceptionHandler()
+          .uncaughtException(Thread.currentThread(), throwable);
+    });
+  }
+
+  /**
+   * @param lane lane of {@link AndroidPromise}
+   * @return scheduler running on the executor of the lane
+   */
+  @NonNull
+  public static Scheduler scheduler(@NonNull Lane lane) {
+    return Schedulers.from(AndroidPromise.instance().executor(lane));
+  }
+
+  /**
+   * @param action action
+   * @param <T>    result type
+   * @return observable running the action on the io lane when subscribed to
+   */
+  @NonNull
+  public static <T> Observable<T> observable(@NonNull Callable<? extends T> action) {
+    return Observable.<T>fromCallable(action).subscribeOn(scheduler(Lane.IO));
+  }
+}
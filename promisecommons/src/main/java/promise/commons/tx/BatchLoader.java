@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ScheduledFuture;
+
+import promise.commons.AndroidPromise;
+import promise.commons.model.List;
+
+/**
+ * collects the keys passed to {@link #load(Object)} for a short window, or until a
+ * maximum batch size is reached, and loads all of them with one call to the batch
+ * function on the promise executor
+ *
+ * @param <K> type of key
+ * @param <V> type of value
+ */
+public class BatchLoader<K, V> {
+  /**
+   * loads the values of a batch of keys
+   */
+  private final Callback2<List<K>, Map<K, V>> batchFunction;
+  /**
+   * maximum number of keys in a batch
+   */
+  private final int maxBatchSize;
+  /**
+   * time a batch collects keys for in millis
+   */
+  private final long windowMillis;
+  /**
+   * batch collecting keys, null when none is
+   */
+  private Batch<K, V> batch;
+
+  /**
+   * @param batchFunction loads the values of a batch of keys, keys missing from the
+   *                      returned map reject their promises
+   * @param maxBatchSize  maximum number of keys in a batch
+   * @param windowMillis  time a batch collects keys for
+   */
+  public BatchLoader(Callback2<List<K>, Map<K, V>> batchFunction, int maxBatchSize, long windowMillis) {
+    if (maxBatchSize < 1)
+      throw new IllegalArgumentException("maxBatchSize must be more than zero");
+    if (windowMillis < 0)
+      throw new IllegalArgumentException("windowMillis must not be negative");
+    this.batchFunction = batchFunction;
+    this.maxBatchSize = maxBatchSize;
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * queues the key on the current batch, keys asked for more than once in a batch
+   * are loaded once, every caller gets its own promise so cancelling it leaves the
+   * others waiting
+   *
+   * @param key key to load
+   * @return promise of the value
+   */
+  @NonNull
+  public Promise<V> load(K key) {
+    final Batch<K, V> full;
+    final Promise<V> promise;
+    synchronized (this) {
+      Batch<K, V> current = batch;
+      if (current == null) {
+        current = batch = new Batch<>();
+        final Batch<K, V> scheduled = current;
+        current.timer = AndroidPromise.instance().execute(() -> {
+          if (claim(scheduled)) flush(scheduled);
+        }, windowMillis);
+      }
+      Promise<V> loading = current.promises.get(key);
+      if (loading != null) return loading.derive();
+      promise = Promise.pending();
+      current.keys.add(key);
+      current.promises.put(key, promise);
+      if (current.keys.size() < maxBatchSize || !claim(current)) return promise.derive();
+      full = current;
+    }
+    full.timer.cancel(false);
+    AndroidPromise.instance().execute(() -> flush(full));
+    return promise.derive();
+  }
+
+  /**
+   * loads the batch now instead of waiting for its window to elapse
+   */
+  public void dispatch() {
+    final Batch<K, V> current;
+    synchronized (this) {
+      current = batch;
+      if (current == null || !claim(current)) return;
+    }
+    current.timer.cancel(false);
+    AndroidPromise.instance().execute(() -> flush(current));
+  }
+
+  /**
+   * stops the batch from collecting keys, the window and the size limit can both try
+   * to flush a batch and only the first one does
+   *
+   * @param flushing batch to load
+   * @return true if the caller should flush the batch
+   */
+  private synchronized boolean claim(Batch<K, V> flushing) {
+    if (flushing.claimed) return false;
+    flushing.claimed = true;
+    if (batch == flushing) batch = null;
+    return true;
+  }
+
+  /**
+   * calls the batch function and settles the promises of the batch
+   *
+   * @param flushing batch to load
+   */
+  private void flush(Batch<K, V> flushing) {
+    Map<K, V> values;
+    try {
+      values = batchFunction.call(flushing.keys);
+    } catch (Throwable e) {
+      // errors too, or the promises of the batch never settle
+      for (Promise<V> promise : flushing.promises.values()) promise.complete(null, e);
+      if (e instanceof Error) throw (Error) e;
+      return;
+    }
+    for (Map.Entry<K, Promise<V>> entry : flushing.promises.entrySet()) {
+      K key = entry.getKey();
+      if (values != null && values.containsKey(key))
+        entry.getValue().complete(values.get(key), null);
+      else entry.getValue().complete(null,
+          new NoSuchElementException("batch function returned no value for " + key));
+    }
+  }
+
+  /**
+   * keys collected for one call of the batch function
+   *
+   * @param <K>
+   * @param <V>
+   */
+  private static final class Batch<K, V> {
+    /**
+     * distinct keys in the order they were asked for
+     */
+    final List<K> keys = new List<>();
+    /**
+     *
+     */
+    final Map<K, Promise<V>> promises = new HashMap<>();
+    /**
+     * flushes the batch once its window elapses
+     */
+    ScheduledFuture<?> timer;
+    /**
+     * set once the batch stops collecting keys
+     */
+    boolean claimed;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import promise.commons.AndroidPromise;
+import promise.commons.util.LatencyHistogram;
+
+/**
+ * state of one {@link Promise#hedged(Callable, long, int)} call, the first attempt that
+ * succeeds settles the promise and the other attempts are cancelled
+ *
+ * @param <R> type of result
+ */
+final class Hedge<R> {
+  /**
+   * samples needed before a learned delay replaces the fallback delay
+   */
+  private static final int MIN_SAMPLES = 20;
+  /**
+   *
+   */
+  private final Callable<? extends R> callable;
+  /**
+   * time to wait for the latest attempt before starting another one
+   */
+  private final long delayMillis;
+  /**
+   * latencies of successful attempts are recorded here when learning the delay
+   */
+  private final LatencyHistogram latencies;
+  /**
+   *
+   */
+  private final int maxHedges;
+  /**
+   *
+   */
+  private final Promise<R> promise = Promise.pending();
+  /**
+   * every attempt started, guarded by this
+   */
+  private final ArrayList<Promise<R>> attempts = new ArrayList<>();
+  /**
+   * guarded by this
+   */
+  private int failed;
+  /**
+   * error of the first failed attempt, guarded by this
+   */
+  private Throwable error;
+  /**
+   * starts the next attempt, guarded by this
+   */
+  private ScheduledFuture<?> timer;
+
+  Hedge(Callable<? extends R> callable, long delayMillis, LatencyHistogram latencies, int maxHedges) {
+    if (delayMillis < 0)
+      throw new IllegalArgumentException("hedgeAfterMillis must not be negative");
+    if (maxHedges < 0)
+      throw new IllegalArgumentException("maxHedges must not be negative");
+    this.callable = callable;
+    this.delayMillis = delayMillis;
+    this.latencies = latencies;
+    this.maxHedges = maxHedges;
+  }
+
+  /**
+   * @param latencies       latencies of earlier attempts
+   * @param percentile      percentile of the latencies to wait for
+   * @param fallbackMillis  delay used until enough latencies are recorded
+   * @return delay before starting another attempt
+   */
+  static long learnedDelay(LatencyHistogram latencies, double percentile, long fallbackMillis) {
+    LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+    if (snapshot.getCount() < MIN_SAMPLES) return fallbackMillis;
+    return Math.max(1, TimeUnit.NANOSECONDS.toMillis(snapshot.getValueAtPercentile(percentile)));
+  }
+
+  /**
+   * @return promise settled by the first successful attempt
+   */
+  Promise<R> start() {
+    promise.pipe((result, error) -> {
+      // the winner is settled already, cancelling it does nothing
+      ArrayList<Promise<R>> started;
+      synchronized (this) {
+        if (timer != null) timer.cancel(false);
+        started = new ArrayList<>(attempts);
+      }
+      for (Promise<R> attempt : started) attempt.cancel();
+    });
+    attempt();
+    return promise;
+  }
+
+  /**
+   * starts another attempt unless the promise has settled or no hedges are left
+   */
+  private void attempt() {
+    final Promise<R> attempt;
+    synchronized (this) {
+      if (promise.isDone() || attempts.size() > maxHedges) return;
+      final long startedAt = System.nanoTime();
+      attempt = new Promise<>((CallbackWithResolver<Object, R>) (arg, resolver) -> {
+        R result;
+        try {
+          result = callable.call();
+        } catch (Throwable e) {
+          // errors too, or the attempt never settles and the hedge waits for it
+          resolver.resolve(null, e);
+          if (e instanceof Error) throw (Error) e;
+          return;
+        }
+        if (latencies != null) latencies.record(System.nanoTime() - startedAt);
+        resolver.resolve(result, null);
+      });
+      attempts.add(attempt);
+      if (attempts.size() <= maxHedges)
+        timer = AndroidPromise.instance().execute(this::attempt, delayMillis);
+    }
+    attempt.pipe((result, error) -> {
+      if (error == null) promise.complete(result, null);
+      else failed(error);
+    });
+  }
+
+  /**
+   * rejects the promise once every attempt failed, and starts the next attempt right
+   * away when every attempt so far has failed but hedges are left
+   *
+   * @param error error of the failed attempt
+   */
+  private void failed(Throwable error) {
+    boolean exhausted;
+    synchronized (this) {
+      if (this.error == null) this.error = error;
+      if (++failed < attempts.size() || promise.isDone()) return;
+      exhausted = attempts.size() > maxHedges;
+      if (!exhausted && timer != null) timer.cancel(false);
+      error = this.error;
+    }
+    if (exhausted) promise.complete(null, error);
+    else attempt();
+  }
+}
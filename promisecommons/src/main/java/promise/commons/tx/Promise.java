@@ -17,12 +17,21 @@ import androidx.annotation.NonNull;
 
 import org.jetbrains.annotations.Contract;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+import kotlin.Unit;
 import promise.commons.AndroidPromise;
+import promise.commons.util.LatencyHistogram;
 
 /**
  * @param <R>
@@ -33,27 +42,134 @@ public class Promise<R> {
    */
   private static final AndroidPromise instance = AndroidPromise.instance();
   /**
-   *
+   * shared promise fulfilled with null
    */
-  private State state;
+  private static final Promise<Object> RESOLVED_NULL = new Promise<>(Outcome.FULFILLED);
   /**
-   *
+   * shared promise fulfilled with {@link Unit}
    */
-  private R result;
+  private static final Promise<Object> RESOLVED_UNIT = new Promise<>(new Outcome(Unit.INSTANCE, null));
   /**
-   *
+   * outcomes queued by handlers that settle promises while their thread is dispatching
+   */
+  private static final ThreadLocal<Trampoline> TRAMPOLINE = new ThreadLocal<Trampoline>() {
+    @Override
+    protected Trampoline initialValue() {
+      return new Trampoline();
+    }
+  };
+  /**
+   * marks the handler stack of a promise other promises are linked to
+   */
+  private static final Resolver<Object> MEMBERS = (result, error) -> {
+  };
+  /**
+   * runs continuations inline on the thread that settles the upstream promise,
+   * meant for cheap callbacks that do not justify a trip through an executor queue
+   */
+  public static final Executor DIRECT = Runnable::run;
+  /**
+   * dispatches continuations to the promise executor
    */
-  private Throwable error;
+  private static final Executor PROMISE_EXECUTOR = instance::execute;
+  /**
+   * executor continuations are dispatched to when none is given
+   */
+  private static volatile Executor defaultExecutor = PROMISE_EXECUTOR;
+  /**
+   * swaps {@link #handlers} from the pending handler stack to the settled outcome
+   */
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<Promise, Object> HANDLERS =
+      AtomicReferenceFieldUpdater.newUpdater(Promise.class, Object.class, "handlers");
   /**
    *
    */
-  private List<Resolver> handlers = new promise.commons.model.List<>();
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<Promise> SUBSCRIBERS =
+      AtomicIntegerFieldUpdater.newUpdater(Promise.class, "subscribers");
+  /**
+   * head {@link Node} of the handlers registered while pending, null when none,
+   * the {@link Outcome} once the promise has settled, or a {@link Link} to the promise
+   * that settles in its place once it has been adopted
+   */
+  private volatile Object handlers;
+  /**
+   * true once promises may be linked to this one, see {@link #mark()}
+   */
+  private volatile boolean linked;
+  /**
+   * true once the marker of linked promises is on the handler stack
+   */
+  private volatile boolean marked;
+  /**
+   * synchronous stage that settles this promise, set on promises returned by
+   * {@link #thenOn(Executor, Callback2)} so that consecutive stages can be fused
+   */
+  private final Stage stage;
+  /**
+   * promise this one was derived from, cleared once this promise settles
+   */
+  private volatile Promise<?> upstream;
+  /**
+   * handler this promise registered on {@link #upstream}
+   */
+  private volatile Node subscription;
+  /**
+   * number of promises derived from this one, a pending promise whose derived promises
+   * have all been cancelled is cancelled as well, handlers added with
+   * {@link #pipe(Resolver)} are not counted
+   */
+  private volatile int subscribers;
+  /**
+   * name latencies of this stage are recorded under, see {@link PromiseMetrics}
+   */
+  private volatile String name;
+  /**
+   * {@link System#nanoTime()} the chain of this promise started at, zero when
+   * {@link PromiseMetrics} was disabled
+   */
+  private long chainStart;
+  /**
+   * registration of this pending promise with {@link PromiseWatchdog}, null when it
+   * was disabled
+   */
+  private final Object watch;
+  /**
+   * creates a fresh promise running the same callback, used by {@link #retry(RetryPolicy)},
+   * the task or stage running the callback so keeping it costs no allocation, null when
+   * this promise has no callback of its own or once it is fulfilled
+   */
+  private volatile Origin origin;
 
   /**
    *
    */
   public Promise() {
-    this.state = State.Fulfilled;
+    this.handlers = Outcome.FULFILLED;
+    this.stage = null;
+    this.watch = null;
+  }
+
+  /**
+   * pending promise settled by its own synchronous stage
+   *
+   * @param callback stage callback
+   * @param executor executor the stage is dispatched to
+   */
+  private Promise(final Callback2<?, ?> callback, final Executor executor) {
+    this.stage = new Stage(executor, callback, this);
+    this.watch = PromiseWatchdog.watch(this);
+  }
+
+  /**
+   * @param outcome settled outcome or null for a pending promise only settled through
+   *                {@link #complete(Object, Throwable)}
+   */
+  private Promise(final Outcome outcome) {
+    this.handlers = outcome;
+    this.stage = null;
+    this.watch = outcome == null ? PromiseWatchdog.watch(this) : null;
   }
 
   /**
@@ -61,45 +177,22 @@ public class Promise<R> {
    * @param <A>
    */
   public <A> Promise(final CallbackWithResolver<? super A, R> callback) {
-    this.state = State.Pending;
-    final Resolver<? super R> finalResolver = (result, error) -> {
-      final List<Resolver> nextPromises = new ArrayList<>();
-      final CountDownLatch signal = new CountDownLatch(1);
-      instance.execute(() -> {
-        if (this.getState() == State.Pending) {
-          nextPromises.addAll(Promise.this.handlers);
-          this.result = result;
-          this.error = error;
-          this.state = error != null ? State.Rejected : State.Fulfilled;
-        }
-        signal.countDown();
-      });
-
-      try {
-        signal.await();
-      } catch (InterruptedException ignored) {
-      }
-
-      for (Resolver next : nextPromises) next.resolve(result, error);
-    };
-
-    final Resolver<? super R> resolver = (Resolver<R>) (result, error) -> {
-      if (result != null && error != null)
-        throw new IllegalArgumentException("result and error must both be null");
-      if (Promise.this.state == State.Pending) {
-        if (result instanceof Promise)
-          ((Promise<R>) result).pipe((Resolver<R>) finalResolver);
-        else finalResolver.resolve(result, error);
-      }
-    };
+    this(PROMISE_EXECUTOR, callback);
+  }
 
-    instance.execute(() -> {
-      try {
-        callback.call(null, resolver);
-      } catch (RuntimeException ex) {
-        finalResolver.resolve(null, ex);
-      }
-    });
+  /**
+   * @param executor executor the callback runs on, such as
+   *                 {@link AndroidPromise#executor(promise.commons.exec.Lane)}
+   * @param callback
+   * @param <A>
+   */
+  public <A> Promise(final Executor executor, final CallbackWithResolver<? super A, R> callback) {
+    this.stage = null;
+    this.watch = PromiseWatchdog.watch(this);
+    this.chainStart = chainStart(null);
+    final Launch launch = new Launch(this, executor, callback);
+    this.origin = launch;
+    executor.execute(launch);
   }
 
   /**
@@ -152,7 +245,17 @@ public class Promise<R> {
    * @param <A>
    */
   public <A> Promise(final Callback2<? super A, ? extends R> callback) {
-    this((arg, resolver) -> {
+    this(PROMISE_EXECUTOR, callback);
+  }
+
+  /**
+   * @param executor executor the callback runs on, such as
+   *                 {@link AndroidPromise#executor(promise.commons.exec.Lane)}
+   * @param callback
+   * @param <A>
+   */
+  public <A> Promise(final Executor executor, final Callback2<? super A, ? extends R> callback) {
+    this(executor, (CallbackWithResolver<A, R>) (arg, resolver) -> {
       try {
         resolver.resolve(callback.call((A) arg), null);
       } catch (RuntimeException ex) {
@@ -166,7 +269,7 @@ public class Promise<R> {
    * @param <N>
    */
   public <N> Promise(final RuntimeException error) {
-    this((arg, resolver) -> resolver.resolve(null, error));
+    this(new Outcome(null, error));
   }
 
   /**
@@ -185,9 +288,8 @@ public class Promise<R> {
    * @return
    */
   @NonNull
-  @Contract("_ -> new")
   public static <R> Promise<R> resolve(final R result) {
-    return new Promise<>((arg, resolver) -> resolve(result));
+    return resolved(result);
   }
 
   /**
@@ -196,12 +298,52 @@ public class Promise<R> {
    * @param <R>
    * @return
    */
+  @NonNull
   public static <A, R> Promise<R> resolve(final Throwable ex) {
-    return new Promise<>((CallbackWithResolver<A, R>)
-        (arg, resolver) -> resolver.resolve(null, ex));
+    return rejected(ex);
+  }
+
+  /**
+   * promise that is already fulfilled with the result, nothing is submitted to an
+   * executor and null and {@link Unit} results share a cached instance
+   *
+   * @param result
+   * @param <R>
+   * @return
+   */
+  @NonNull
+  public static <R> Promise<R> resolved(final R result) {
+    if (result == null) return (Promise<R>) RESOLVED_NULL;
+    if (result == Unit.INSTANCE) return (Promise<R>) RESOLVED_UNIT;
+    return new Promise<>(new Outcome(result, null));
+  }
+
+  /**
+   * promise that is already rejected with the error, nothing is submitted to an executor
+   *
+   * @param error
+   * @param <R>
+   * @return
+   */
+  @NonNull
+  @Contract("_ -> new")
+  public static <R> Promise<R> rejected(@NonNull final Throwable error) {
+    return new Promise<>(new Outcome(null, error));
+  }
+
+  /**
+   * @param <R>
+   * @return pending promise settled through {@link #complete(Object, Throwable)} by the
+   * classes of this package
+   */
+  static <R> Promise<R> pending() {
+    return new Promise<>((Outcome) null);
   }
 
   /**
+   * fulfills with the results in the order of the promises once all are fulfilled,
+   * rejects as soon as one of them is rejected
+   *
    * @param promises
    * @param <A>
    * @param <R>
@@ -211,85 +353,812 @@ public class Promise<R> {
   @Contract("_ -> new")
   @SafeVarargs
   public static <A, R> Promise<List<R>> all(final Promise<R>... promises) {
-    return new Promise<>((CallbackWithResolver<A, List<R>>) (arg, resolver) -> {
-      final AtomicInteger totalCount = new AtomicInteger(promises.length);
+    return all(Arrays.asList(promises));
+  }
+
+  /**
+   * fulfills with the results in the order of the promises once all are fulfilled,
+   * rejects as soon as one of them is rejected
+   *
+   * @param promises
+   * @param <A>
+   * @param <R>
+   * @return
+   */
+  @NonNull
+  @Contract("_ -> new")
+  public static <A, R> Promise<List<R>> all(final List<? extends Promise<R>> promises) {
+    final Promise<List<R>> all = new Promise<>((Outcome) null);
+    final int size = promises.size();
+    final Object[] results = new Object[size];
+    final AtomicInteger remaining = new AtomicInteger(size);
+    if (size == 0) all.complete(new promise.commons.model.List<R>(), null);
+    for (int i = 0; i < size; i++) {
+      final int index = i;
+      promises.get(i).pipe((result, error) -> {
+        if (error != null)
+          all.complete(null, new RuntimeException("one of promise in promises was rejected", error));
+        else {
+          results[index] = result;
+          if (remaining.decrementAndGet() == 0) all.complete(toList(results), null);
+        }
+      });
+    }
+    return all;
+  }
+
+  /**
+   * fulfills with the given promises once every one of them has either been fulfilled
+   * or rejected, never rejects
+   *
+   * @param promises
+   * @param <R>
+   * @return
+   */
+  @NonNull
+  @SafeVarargs
+  public static <R> Promise<List<Promise<R>>> allSettled(final Promise<R>... promises) {
+    return allSettled(Arrays.asList(promises));
+  }
+
+  /**
+   * fulfills with the given promises once every one of them has either been fulfilled
+   * or rejected, never rejects
+   *
+   * @param promises
+   * @param <R>
+   * @return
+   */
+  @NonNull
+  public static <R> Promise<List<Promise<R>>> allSettled(final List<? extends Promise<R>> promises) {
+    final Promise<List<Promise<R>>> allSettled = new Promise<>((Outcome) null);
+    final List<Promise<R>> settled = new promise.commons.model.List<>(promises);
+    final AtomicInteger remaining = new AtomicInteger(settled.size());
+    if (settled.isEmpty()) allSettled.complete(settled, null);
+    for (Promise<R> promise : settled)
+      promise.pipe((result, error) -> {
+        if (remaining.decrementAndGet() == 0) allSettled.complete(settled, null);
+      });
+    return allSettled;
+  }
+
+  /**
+   * fulfills with the first fulfilled result, rejects once all of the promises are rejected
+   *
+   * @param promises
+   * @param <R>
+   * @return
+   */
+  @NonNull
+  @SafeVarargs
+  public static <R> Promise<R> any(final Promise<R>... promises) {
+    return any(Arrays.asList(promises));
+  }
+
+  /**
+   * fulfills with the first fulfilled result, rejects once all of the promises are rejected
+   *
+   * @param promises
+   * @param <R>
+   * @return
+   */
+  @NonNull
+  public static <R> Promise<R> any(final List<? extends Promise<R>> promises) {
+    final Promise<R> any = new Promise<>((Outcome) null);
+    final AtomicInteger remaining = new AtomicInteger(promises.size());
+    if (promises.isEmpty())
+      any.complete(null, new NoSuchElementException("no promises to wait for"));
+    for (Promise<R> promise : promises)
+      promise.pipe((result, error) -> {
+        if (error == null) any.complete(result, null);
+        else if (remaining.decrementAndGet() == 0)
+          any.complete(null, new RuntimeException("all promises were rejected", error));
+      });
+    return any;
+  }
+
+  /**
+   * maps every item on the default executor with at most maxConcurrency callbacks running
+   * at once, results are in the order of the items and the first failure rejects the
+   * promise and stops mapping the items that have not started
+   *
+   * @param items          items to map
+   * @param maxConcurrency maximum number of callbacks running at once
+   * @param callback       mapping callback
+   * @param <T>
+   * @param <R>
+   * @return
+   */
+  @NonNull
+  public static <T, R> Promise<List<R>> map(final List<? extends T> items, final int maxConcurrency,
+                                           final Callback2<? super T, ? extends R> callback) {
+    if (maxConcurrency < 1)
+      throw new IllegalArgumentException("maxConcurrency must be more than zero");
+    final Promise<List<R>> map = new Promise<>((Outcome) null);
+    final int size = items.size();
+    if (size == 0) {
+      map.complete(new promise.commons.model.List<R>(), null);
+      return map;
+    }
+    final Object[] results = new Object[size];
+    final AtomicInteger cursor = new AtomicInteger();
+    final AtomicInteger remaining = new AtomicInteger(size);
+    // each worker keeps taking the next item, so no more than maxConcurrency tasks exist
+    final Runnable worker = () -> {
+      int index;
+      while (!map.isDone() && (index = cursor.getAndIncrement()) < size) {
+        try {
+          results[index] = callback.call(items.get(index));
+        } catch (Throwable ex) {
+          // errors too, or the promise never settles
+          map.complete(null, ex);
+          if (ex instanceof Error) throw (Error) ex;
+          return;
+        }
+        if (remaining.decrementAndGet() == 0) map.complete(toList(results), null);
+      }
+    };
+    final Executor executor = defaultExecutor();
+    for (int i = 0, workers = Math.min(maxConcurrency, size); i < workers; i++)
+      executor.execute(worker);
+    return map;
+  }
+
+  /**
+   * @param results
+   * @param <R>
+   * @return
+   */
+  private static <R> List<R> toList(Object[] results) {
+    List<R> list = new promise.commons.model.List<>(results.length);
+    for (Object result : results) list.add((R) result);
+    return list;
+  }
+
+  /**
+   * @param promises
+   * @param <A>
+   * @param <R>
+   * @return
+   */
+  public static <A, R> Promise<R> race(final List<? extends Promise<R>> promises) {
+    return new Promise<>((CallbackWithResolver<A, R>) (arg, resolver) -> {
+      final AtomicInteger totalCount = new AtomicInteger(promises.size());
       for (Promise<R> promise : promises)
-        promise.pipe((result, error) -> {
-          if (error != null)
-            resolver.resolve(null, new RuntimeException("one of promise in promises was rejected", error));
-          else if (totalCount.decrementAndGet() == 0) {
-            List<R> results = new ArrayList<>(promises.length);
-            for (Promise<R> promise1 : promises) results.add(promise1.result);
-            resolver.resolve(results, null);
-          }
+        promise.pipe((result, ex) -> {
+          if (ex == null) resolver.resolve(result, null);
+          else if (totalCount.decrementAndGet() == 0)
+            resolver.resolve(null, new RuntimeException("all promise were rejected."));
         });
     });
   }
 
   /**
-   * @param promises
-   * @param <A>
+   * runs the callable on the promise executor and, if it has not succeeded after
+   * hedgeAfterMillis, runs it again, up to maxHedges extra times, fulfills with the first
+   * result and cancels the other attempts, rejects with the first error once every
+   * attempt failed, an attempt failing before the delay starts the next one right away
+   *
+   * @param callable         idempotent task to run
+   * @param hedgeAfterMillis time to wait for an attempt before starting another one
+   * @param maxHedges        maximum number of extra attempts
    * @param <R>
    * @return
    */
-  @NonNull
-  @Contract("_ -> new")
-  public static <A, R> Promise<List<R>> all(final List<? extends Promise<R>> promises) {
-    return new Promise<>((CallbackWithResolver<A, List<R>>) (arg, resolver) -> {
-      final AtomicInteger totalCount = new AtomicInteger(promises.size());
-      for (Promise<R> promise : promises)
-        promise.pipe((result, error) -> {
-          if (error != null)
-            resolver.resolve(null, new RuntimeException("one of promise in promises was rejected", error));
-          else if (totalCount.decrementAndGet() == 0) {
-            List<R> results = new ArrayList<>(promises.size());
-            for (Promise<R> promise1 : promises) results.add(promise1.result);
-            resolver.resolve(results, null);
-          }
-        });
-    });
+  @NonNull
+  public static <R> Promise<R> hedged(final Callable<? extends R> callable, final long hedgeAfterMillis,
+                                      final int maxHedges) {
+    return new Hedge<R>(callable, hedgeAfterMillis, null, maxHedges).start();
+  }
+
+  /**
+   * same as {@link #hedged(Callable, long, int)} with the delay learned from the 95th
+   * percentile of the latencies of earlier successful attempts, which are recorded in
+   * the histogram, fallbackMillis is used until enough latencies are recorded
+   *
+   * @param callable       idempotent task to run
+   * @param latencies      latencies shared by the calls hedging the same task
+   * @param fallbackMillis delay used until enough latencies are recorded
+   * @param maxHedges      maximum number of extra attempts
+   * @param <R>
+   * @return
+   */
+  @NonNull
+  public static <R> Promise<R> hedged(final Callable<? extends R> callable, final LatencyHistogram latencies,
+                                      final long fallbackMillis, final int maxHedges) {
+    long delay = Hedge.learnedDelay(latencies, 95, fallbackMillis);
+    return new Hedge<R>(callable, delay, latencies, maxHedges).start();
+  }
+
+  /**
+   * sets the executor then and error callbacks are dispatched to when none is given,
+   * passing null restores the promise executor
+   *
+   * @param executor default continuation executor or {@link #DIRECT}
+   */
+  public static void withExecutor(Executor executor) {
+    defaultExecutor = executor != null ? executor : PROMISE_EXECUTOR;
+  }
+
+  /**
+   * @return the executor then and error callbacks are dispatched to when none is given
+   */
+  public static Executor defaultExecutor() {
+    return defaultExecutor;
+  }
+
+  public State getState() {
+    Object head = root().handlers;
+    if (head instanceof Outcome)
+      return ((Outcome) head).error != null ? State.Rejected : State.Fulfilled;
+    return State.Pending;
+  }
+
+  public R getResult() {
+    Object head = root().handlers;
+    return head instanceof Outcome ? (R) ((Outcome) head).result : null;
+  }
+
+  public Throwable getError() {
+    Object head = root().handlers;
+    return head instanceof Outcome ? ((Outcome) head).error : null;
+  }
+
+  public boolean isSuccess() {
+    return getError() == null;
+  }
+
+  /**
+   * @return true once the promise is fulfilled or rejected
+   */
+  public boolean isDone() {
+    return root().handlers instanceof Outcome;
+  }
+
+  /**
+   * registers the resolver to be called once this promise settles, the resolver is
+   * called immediately on the calling thread if the promise has already settled
+   *
+   * @param resolver
+   */
+  public void pipe(Resolver<R> resolver) {
+    register(resolver);
+  }
+
+  /**
+   * cancels this promise if it is still pending, it is rejected with a
+   * {@link CancellationException}, callbacks that have not started are skipped and
+   * the cancellation propagates to upstream promises no other derived promise is
+   * waiting for
+   *
+   * @return true if this call cancelled the promise
+   */
+  public boolean cancel() {
+    final Promise<?> upstream = this.upstream;
+    final Node subscription = this.subscription;
+    final CancellationException error = new CancellationException("promise was cancelled");
+    if (!abandon(error)) return false;
+    // the stage no longer runs, so the stages fused after it are rejected here
+    final Stage successor = stage != null ? stage.seal() : null;
+    if (successor != null) successor.run(null, error);
+    unsubscribe(upstream, subscription);
+    return true;
+  }
+
+  /**
+   * names this stage, while {@link PromiseMetrics} is enabled the time its task waits in
+   * the executor queue, the time its callback runs for and the time from the start of
+   * the chain until it settles are recorded under the name
+   *
+   * @param name name of the stage
+   * @return this promise
+   */
+  public Promise<R> named(String name) {
+    this.name = name;
+    return this;
+  }
+
+  /**
+   * @param upstream promise a new promise is derived from, or null for a new chain
+   * @return start of the chain the new promise belongs to, zero while
+   * {@link PromiseMetrics} is disabled
+   */
+  private static long chainStart(Promise<?> upstream) {
+    if (upstream != null && upstream.chainStart != 0) return upstream.chainStart;
+    return PromiseMetrics.isEnabled() ? System.nanoTime() : 0;
+  }
+
+  /**
+   * @param queuedAt {@link System#nanoTime()} the task of this stage was submitted at
+   * @return {@link System#nanoTime()} the task started at, zero if not recording
+   */
+  private long recordQueueWait(long queuedAt) {
+    String name = this.name;
+    if (name == null || queuedAt == 0 || !PromiseMetrics.isEnabled()) return 0;
+    long startedAt = System.nanoTime();
+    PromiseMetrics.stage(name).queueWait.record(startedAt - queuedAt);
+    return startedAt;
+  }
+
+  /**
+   * @param startedAt {@link System#nanoTime()} the callback of this stage started at
+   */
+  private void recordExecution(long startedAt) {
+    String name = this.name;
+    if (name == null || startedAt == 0 || !PromiseMetrics.isEnabled()) return;
+    PromiseMetrics.stage(name).execution.record(System.nanoTime() - startedAt);
+  }
+
+  /**
+   * @return true if this promise was settled by {@link #cancel()}
+   */
+  public boolean isCancelled() {
+    return getError() instanceof CancellationException;
+  }
+
+  /**
+   * derives a promise that settles like this one, or is rejected with a
+   * {@link TimeoutException} if this one is still pending after the timeout, in which
+   * case the work behind this promise is cancelled like in {@link #cancel()}
+   *
+   * @param millis timeout in millis
+   * @return
+   */
+  public Promise<R> timeout(final long millis) {
+    final Promise<R> timeout = new Promise<>((Outcome) null);
+    final ScheduledFuture<?> timer = instance.execute(() -> {
+      final Promise<?> upstream = timeout.upstream;
+      final Node subscription = timeout.subscription;
+      if (timeout.complete(null, new TimeoutException("promise timed out after " + millis + " millis")))
+        unsubscribe(upstream, subscription);
+    }, millis);
+    timeout.subscribe(this, (result, error) -> {
+      timer.cancel(false);
+      timeout.complete(result, error);
+    });
+    return timeout;
+  }
+
+  /**
+   * @return promise settling like this one on the thread that settles it, cancelling
+   * it cancels this one only once every other promise derived from it is cancelled
+   */
+  Promise<R> derive() {
+    final Promise<R> derived = new Promise<>((Outcome) null);
+    derived.chainStart = chainStart(this);
+    derived.subscribe(this, derived::complete);
+    return derived;
+  }
+
+  /**
+   * runs the callback of this promise again while it is rejected with a retryable
+   * error, waiting between attempts as the policy says, only promises created with a
+   * callback and stages added with a {@link Callback2} can be retried, others are
+   * returned as they are
+   *
+   * @param policy attempts, backoff, retryable errors and deadline
+   * @return promise settled by the first successful attempt or the last failed one
+   */
+  @NonNull
+  @SuppressWarnings("unchecked")
+  public Promise<R> retry(@NonNull final RetryPolicy policy) {
+    final Origin origin = this.origin;
+    if (origin == null) return this;
+    return new Retry<>(() -> (Promise<R>) origin.restart(), policy).start(this);
+  }
+
+  /**
+   * @param resolver
+   * @return the handler entry, or null if the resolver was called because this promise
+   * had already settled
+   */
+  private Node register(Resolver<? super R> resolver) {
+    Node node = new Node(resolver);
+    return push(node) ? node : null;
+  }
+
+  /**
+   * @param node handler entry
+   * @return true if the entry was pushed on the handler stack, false if it was
+   * dispatched because this promise had already settled
+   */
+  private boolean push(Node node) {
+    for (; ; ) {
+      Object head = handlers;
+      if (head instanceof Link) {
+        // registered through this linked promise, it settles with the root unless this
+        // promise is settled on its own first
+        if (node.owner == null) node.owner = this;
+        if (!root().push(node)) return false;
+        Object own = handlers;
+        if (own instanceof Outcome) deliver(node, (Outcome) own);
+        return true;
+      }
+      if (head instanceof Outcome) {
+        Outcome outcome = (Outcome) head;
+        // registered through a promise still linked to this one, which was settled on its own
+        if (node.owner != null && node.owner != this && outcome.successor != null)
+          return outcome.successor.push(node);
+        node.next = null;
+        dispatch(node, outcome.result, outcome.error);
+        return false;
+      }
+      node.next = (Node) head;
+      if (HANDLERS.compareAndSet(this, head, node)) return true;
+    }
+  }
+
+  /**
+   * calls a handler registered through a linked promise with the outcome that promise
+   * was settled with on its own, unless it has been called already
+   *
+   * @param node    handler entry still on the stack of the root
+   * @param outcome outcome of the promise it was registered through
+   */
+  private static void deliver(Node node, Outcome outcome) {
+    Resolver resolver = node.take();
+    if (resolver != null) dispatch(new Node(resolver), outcome.result, outcome.error);
+  }
+
+  /**
+   * @return the promise that settles in place of this one once it has been adopted,
+   * or this promise
+   */
+  private Promise<?> root() {
+    Object head = handlers;
+    if (!(head instanceof Link)) return this;
+    Promise<?> root = ((Link) head).target;
+    for (; ; ) {
+      Object next = root.handlers;
+      if (next instanceof Link) root = ((Link) next).target;
+      else if (next instanceof Outcome && ((Outcome) next).successor != null)
+        root = ((Outcome) next).successor;
+      else break;
+    }
+    // shorten the path for the next lookup
+    if (root != ((Link) head).target) HANDLERS.compareAndSet(this, head, new Link(root));
+    return root;
+  }
+
+  /**
+   * makes this pending promise settle like the inner promise, an inner promise no
+   * handler was registered on yet is linked to this promise instead of being waited on,
+   * so a chain of promises each resolved with the next one settles in constant stack
+   * depth and the intermediate promises become unreachable as soon as they are linked,
+   * any other inner promise is waited on with a handler, settling this promise on its
+   * own, such as by cancelling it, settles the linked promises too unless handlers were
+   * registered through them, which then go on settling their own handlers
+   *
+   * @param inner promise this one was resolved with
+   */
+  private void adopt(Promise<?> inner) {
+    for (; ; ) {
+      Promise<?> root = root();
+      if (inner.root() == root) {
+        complete(null, new IllegalStateException("promise cannot be resolved with itself"));
+        return;
+      }
+      Object head = inner.handlers;
+      if (head instanceof Outcome) {
+        Outcome outcome = (Outcome) head;
+        complete(outcome.result, outcome.error);
+        return;
+      }
+      if (head != null || inner.linked || inner.subscribers > 0) {
+        // others are waiting for it, or promises are linked or fused to it, one only
+        // linked promises wait for is stopped if the root settles first
+        final Node stop = !(head instanceof Node) || inner.subscribers > 0
+            || hasHandlers((Node) head) ? null : root.register(new Stop(inner));
+        inner.register((result, error) -> {
+          // settled first, so the root no longer needs to stop it
+          if (stop != null) stop.resolver = null;
+          complete(result, error);
+        });
+        return;
+      }
+      // a root that settled meanwhile is linked to all the same, unless it handed its
+      // linked promises over to a successor root() follows, so the inner promise settles
+      // with it instead of running on with nothing waiting for it
+      root.mark();
+      if (HANDLERS.compareAndSet(inner, null, new Link(root))) {
+        // the inner promise now settles with the root, only the root is watched
+        PromiseWatchdog.unwatch(inner.watch);
+        return;
+      }
+    }
+  }
+
+  /**
+   * records that promises are linked to this root before the first one is, so that
+   * settling it on its own hands them over to a successor
+   *
+   * @return false if this promise has already settled
+   */
+  private boolean mark() {
+    if (marked) return true;
+    linked = true;
+    if (!push(new Node(MEMBERS))) return false;
+    marked = true;
+    return true;
+  }
+
+  /**
+   * registers the resolver on the upstream promise and remembers the registration so
+   * that cancelling this promise can drop it, this promise counts as derived from the
+   * upstream promise until then
+   *
+   * @param upstream
+   * @param resolver
+   * @param <A>
+   */
+  private <A> void subscribe(Promise<A> upstream, Resolver<? super A> resolver) {
+    // counted on the upstream object itself, the one unsubscribe decrements
+    SUBSCRIBERS.incrementAndGet(upstream);
+    this.upstream = upstream;
+    Node subscription = upstream.register(resolver);
+    if (subscription != null && !isDone()) this.subscription = subscription;
+  }
+
+  /**
+   * drops the handler a cancelled promise registered on its upstream promise, and
+   * cancels the upstream promise if nothing else is waiting for it
+   *
+   * @param upstream
+   * @param subscription
+   */
+  private static void unsubscribe(Promise<?> upstream, Node subscription) {
+    if (upstream == null) return;
+    if (subscription != null) subscription.resolver = null;
+    if (SUBSCRIBERS.decrementAndGet(upstream) == 0) upstream.cancel();
+  }
+
+  /**
+   * @return resolver that settles this promise, or waits for a promise it is given
+   */
+  private Resolver<R> resolver() {
+    return (result, error) -> {
+      if (result != null && error != null)
+        throw new IllegalArgumentException("result and error must both be null");
+      if (!isDone()) {
+        if (result instanceof Promise) adopt((Promise<?>) result);
+        else complete(result, error);
+      }
+    };
+  }
+
+  /**
+   * settles this promise once, the first caller wins and every registered handler
+   * is called on the calling thread in the order it was registered, a linked promise
+   * settles its root
+   *
+   * @param result
+   * @param error
+   * @return true if this call settled the promise
+   */
+  boolean complete(Object result, Throwable error) {
+    return settle(result, error, false);
+  }
+
+  /**
+   * @param result
+   * @param error
+   * @param routed true if settled through a promise linked to this one
+   * @return true if this call settled the promise
+   */
+  private boolean settle(Object result, Throwable error, boolean routed) {
+    for (; ; ) {
+      Object head = handlers;
+      if (head instanceof Link) return root().settle(result, error, true);
+      if (head instanceof Outcome) {
+        // settled on its own while promises were linked to it, they settle the successor
+        Promise<?> successor = ((Outcome) head).successor;
+        return routed && successor != null && successor.settle(result, error, true);
+      }
+      Node stack = (Node) head;
+      // linked promises nothing observes settle like this one, which stops their work
+      Promise<?> successor = !routed && linked && hasObservers(stack) ? successor() : null;
+      Outcome outcome = successor != null ? new Outcome(result, error, successor) :
+          result == null && error == null ? Outcome.FULFILLED : new Outcome(result, error);
+      if (HANDLERS.compareAndSet(this, head, outcome)) {
+        settled(error);
+        dispatch(successor != null ? handOver(stack, successor) : reverse(stack), result, error);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * settles this promise on its own, a linked promise leaves its root, which is rejected
+   * too since it was waiting for this one, while the promises linked to the root go on
+   * to settle a successor
+   *
+   * @param error
+   * @return true if this call settled the promise
+   */
+  private boolean abandon(Throwable error) {
+    for (; ; ) {
+      Promise<?> root = root();
+      Object head = handlers;
+      if (!(head instanceof Link)) return settle(null, error, false);
+      Outcome outcome = new Outcome(null, error);
+      if (HANDLERS.compareAndSet(this, head, outcome)) {
+        settled(error);
+        dispatch(takeOwned(root), null, error);
+        root.settle(null, error, false);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * drops what a settled promise no longer needs
+   *
+   * @param error
+   */
+  private void settled(Throwable error) {
+    // a settled promise no longer needs to keep its upstream reachable
+    upstream = null;
+    subscription = null;
+    if (error == null) {
+      // nor does a fulfilled one need to run again
+      origin = null;
+      if (stage != null) stage.source = null;
+    }
+    PromiseWatchdog.unwatch(watch);
+    if (chainStart != 0 && name != null && PromiseMetrics.isEnabled())
+      PromiseMetrics.stage(name).chain.record(System.nanoTime() - chainStart);
+  }
+
+  /**
+   * @return pending promise the promises linked to a root settle once the root was
+   * settled on its own
+   */
+  private static Promise<Object> successor() {
+    Promise<Object> successor = new Promise<>(Outcome.FULFILLED);
+    successor.handlers = null;
+    successor.linked = true;
+    successor.marked = true;
+    return successor;
   }
 
   /**
-   * @param promises
-   * @param <A>
-   * @param <R>
-   * @return
+   * @param stack handler stack detached from a promise
+   * @return true if handlers registered through promises linked to it are still waiting
    */
-  public static <A, R> Promise<R> race(final List<? extends Promise<R>> promises) {
-    return new Promise<>((CallbackWithResolver<A, R>) (arg, resolver) -> {
-      final AtomicInteger totalCount = new AtomicInteger(promises.size());
-      for (Promise<R> promise : promises)
-        promise.pipe((result, ex) -> {
-          if (ex == null) resolver.resolve(result, null);
-          else if (totalCount.decrementAndGet() == 0)
-            resolver.resolve(null, new RuntimeException("all promise were rejected."));
-        });
-    });
+  private static boolean hasObservers(Node stack) {
+    for (Node node = stack; node != null; node = node.next)
+      if (node.owner != null && node.resolver != null) return true;
+    return false;
   }
 
-  public State getState() {
-    return state;
+  /**
+   * @param stack handler stack of a pending promise
+   * @return true if handlers were registered on the promise itself, rather than through
+   * the promises linked to it
+   */
+  private static boolean hasHandlers(Node stack) {
+    for (Node node = stack; node != null; node = node.next)
+      if (node.owner == null && node.resolver != null && node.resolver != MEMBERS
+          && !(node.resolver instanceof Stop)) return true;
+    return false;
   }
 
-  public R getResult() {
-    return result;
+  /**
+   * moves the handlers registered through linked promises over to the successor
+   *
+   * @param stack     handler stack detached from a root settled on its own
+   * @param successor promise the linked promises settle from now on
+   * @return the handlers registered on the root itself, first registered first
+   */
+  private static Node handOver(Node stack, Promise<?> successor) {
+    Node own = null;
+    Node moved = null;
+    // the stack is newest first, so prepending leaves both lists in registration order
+    while (stack != null) {
+      Node next = stack.next;
+      if (stack.owner != null || stack.resolver == MEMBERS) {
+        stack.next = moved;
+        moved = stack;
+      } else {
+        stack.next = own;
+        own = stack;
+      }
+      stack = next;
+    }
+    while (moved != null) {
+      Node next = moved.next;
+      if (successor.push(moved) && moved.owner != null) {
+        // the promise it was registered through may have been settled on its own meanwhile
+        Object owner = moved.owner.handlers;
+        if (owner instanceof Outcome) deliver(moved, (Outcome) owner);
+      }
+      moved = next;
+    }
+    return own;
   }
 
-  public Throwable getError() {
-    return error;
+  /**
+   * @param root root this linked promise was settled on its own from
+   * @return the handlers registered through this promise that were still waiting on
+   * the root, first registered first
+   */
+  private Node takeOwned(Promise<?> root) {
+    Node taken = null;
+    for (Promise<?> current = root; current != null; ) {
+      Object head = current.handlers;
+      if (head instanceof Node) {
+        // newest first, so prepending leaves them in registration order
+        for (Node node = (Node) head; node != null; node = node.next) {
+          if (node.owner != this) continue;
+          Resolver resolver = node.take();
+          if (resolver == null) continue;
+          Node copy = new Node(resolver);
+          copy.next = taken;
+          taken = copy;
+        }
+        break;
+      }
+      current = head instanceof Outcome ? ((Outcome) head).successor : null;
+    }
+    return taken;
   }
 
-  public boolean isSuccess() {
-    return error == null;
+  /**
+   * reverses a handler stack detached from a promise, which is owned by the caller
+   *
+   * @param head
+   * @return the first registered handler
+   */
+  private static Node reverse(Node head) {
+    Node reversed = null;
+    while (head != null) {
+      Node next = head.next;
+      head.next = reversed;
+      reversed = head;
+      head = next;
+    }
+    return reversed;
   }
 
   /**
-   * @param resolver
+   * calls the handlers with the outcome, handlers settling other promises while this
+   * thread is already dispatching are queued on its trampoline instead of recursing,
+   * so resolving a long chain takes constant stack depth
+   *
+   * @param handlers first handler to call
+   * @param result
+   * @param error
    */
-  public void pipe(Resolver<R> resolver) {
-    if (this.state == State.Pending) this.handlers.add(resolver);
-    else resolver.resolve(result, error);
+  private static void dispatch(Node handlers, Object result, Throwable error) {
+    if (handlers == null) return;
+    final Trampoline trampoline = TRAMPOLINE.get();
+    if (trampoline.draining) {
+      trampoline.add(new Dispatch(handlers, result, error));
+      return;
+    }
+    trampoline.draining = true;
+    RuntimeException failure = null;
+    try {
+      for (; ; ) {
+        for (Node node = handlers; node != null; node = node.next) {
+          // a handler registered through a linked promise may also be called by that promise
+          Resolver resolver = node.owner == null ? node.resolver : node.take();
+          if (resolver != null) try {
+            resolver.resolve(result, error);
+          } catch (RuntimeException ex) {
+            if (failure == null) failure = ex;
+          }
+        }
+        Dispatch next = trampoline.poll();
+        if (next == null) break;
+        handlers = next.handlers;
+        result = next.result;
+        error = next.error;
+      }
+    } finally {
+      trampoline.draining = false;
+    }
+    if (failure != null) throw failure;
   }
 
   /**
@@ -301,9 +1170,13 @@ public class Promise<R> {
    */
   private <A, R> Promise<R> __pipe(final Promise<A> self,
                                    final Piper<? super A, R> piper) {
-    return new Promise<>((CallbackWithResolver<A, R>) (arg, resolver) ->
-        self.pipe((result, error) ->
-            piper.pipe(result, error, resolver)));
+    final Promise<R> next = new Promise<>((Outcome) null);
+    next.chainStart = chainStart(self);
+    final Resolver<R> resolver = next.resolver();
+    next.subscribe(self, (result, error) -> {
+      if (!next.isDone()) piper.pipe(result, error, resolver);
+    });
+    return next;
   }
 
   /**
@@ -312,25 +1185,62 @@ public class Promise<R> {
    * @return
    */
   public <N> Promise<N> then(final Callback2<? super R, ? extends N> then) {
-    return __pipe(this, (arg, error, resolver) -> {
-      if (error != null) resolver.resolve(null, error);
-      else instance.execute(() -> {
-        try {
-          resolver.resolve(then.call(arg), null);
-        } catch (RuntimeException ex) {
-          resolver.resolve(null, ex);
-        }
-      });
+    return thenOn(defaultExecutor(), then);
+  }
+
+  /**
+   * @param executor executor the callback is dispatched to, {@link #DIRECT} runs it
+   *                 on the thread that settles this promise
+   * @param then
+   * @param <N>
+   * @return
+   */
+  public <N> Promise<N> thenOn(final Executor executor, final Callback2<? super R, ? extends N> then) {
+    final Promise<N> next = new Promise<>(then, executor);
+    next.stage.source = this;
+    next.origin = next.stage;
+    next.chainStart = chainStart(this);
+    // a synchronous stage following another one on the same executor runs in its task
+    // but not to a linked promise, where it has to be seen waiting for its outcome
+    final Stage previous = this.stage;
+    if (previous != null && previous.executor == executor && !(handlers instanceof Link)) {
+      // counted first so that an adopter does not link this promise meanwhile
+      SUBSCRIBERS.incrementAndGet(this);
+      if (previous.fuse(next.stage)) {
+        next.upstream = this;
+        return next;
+      }
+      SUBSCRIBERS.decrementAndGet(this);
+    }
+    next.subscribe(this, (arg, error) -> {
+      if (error != null) next.stage.run(null, error);
+      else {
+        final long queuedAt = PromiseMetrics.isEnabled() ? System.nanoTime() : 0;
+        executor.execute(() -> {
+          next.recordQueueWait(queuedAt);
+          next.stage.run(arg, null);
+        });
+      }
     });
+    return next;
   }
 
   /**
    * @param then
    */
   public void then(final VoidReturnCallback<? super R> then) {
+    thenOn(defaultExecutor(), then);
+  }
+
+  /**
+   * @param executor executor the callback is dispatched to, {@link #DIRECT} runs it
+   *                 on the thread that settles this promise
+   * @param then
+   */
+  public void thenOn(final Executor executor, final VoidReturnCallback<? super R> then) {
     __pipe(this, (arg, error, resolver) -> {
       if (error != null) resolver.resolve(null, error);
-      else instance.execute(() -> {
+      else executor.execute(() -> {
         try {
           then.call(arg);
           resolver.resolve(null, null);
@@ -345,9 +1255,18 @@ public class Promise<R> {
    * @param then
    */
   public void then(final VoidArgVoidReturnCallback then) {
+    thenOn(defaultExecutor(), then);
+  }
+
+  /**
+   * @param executor executor the callback is dispatched to, {@link #DIRECT} runs it
+   *                 on the thread that settles this promise
+   * @param then
+   */
+  public void thenOn(final Executor executor, final VoidArgVoidReturnCallback then) {
     __pipe(this, (arg, error, resolver) -> {
       if (error != null) resolver.resolve(null, error);
-      else instance.execute(() -> {
+      else executor.execute(() -> {
         try {
           then.call();
           resolver.resolve(null, null);
@@ -364,9 +1283,20 @@ public class Promise<R> {
    * @return
    */
   public <N> Promise<N> then(final VoidArgCallback<? extends N> then) {
+    return thenOn(defaultExecutor(), then);
+  }
+
+  /**
+   * @param executor executor the callback is dispatched to, {@link #DIRECT} runs it
+   *                 on the thread that settles this promise
+   * @param then
+   * @param <N>
+   * @return
+   */
+  public <N> Promise<N> thenOn(final Executor executor, final VoidArgCallback<? extends N> then) {
     return __pipe(this, (arg, error, resolver) -> {
       if (error != null) resolver.resolve(null, error);
-      else instance.execute(() -> {
+      else executor.execute(() -> {
         try {
           resolver.resolve(then.call(), null);
         } catch (RuntimeException ex) {
@@ -382,9 +1312,20 @@ public class Promise<R> {
    * @return
    */
   public <N> Promise<N> then(final CallbackWithResolver<? super R, N> then) {
+    return thenOn(defaultExecutor(), then);
+  }
+
+  /**
+   * @param executor executor the callback is dispatched to, {@link #DIRECT} runs it
+   *                 on the thread that settles this promise
+   * @param then
+   * @param <N>
+   * @return
+   */
+  public <N> Promise<N> thenOn(final Executor executor, final CallbackWithResolver<? super R, N> then) {
     return __pipe(this, (arg, error, resolver) -> {
       if (error != null) resolver.resolve(null, error);
-      else instance.execute(() -> {
+      else executor.execute(() -> {
         try {
           then.call(arg, resolver);
         } catch (RuntimeException ex) {
@@ -493,7 +1434,7 @@ public class Promise<R> {
    */
   public Promise<R> error(final Callback2<Throwable, ? extends R> callback) {
     return __pipe(this, (arg, error, resolver) -> {
-      if (error != null) instance.execute(() -> {
+      if (error != null) defaultExecutor().execute(() -> {
         try {
           resolver.resolve(callback.call(error), null);
         } catch (RuntimeException ex) {
@@ -512,7 +1453,7 @@ public class Promise<R> {
    */
   public Promise<R> error(final VoidArgCallback<? extends R> callback) {
     return __pipe(this, (arg, error, resolver) -> {
-      if (error != null) instance.execute(() -> {
+      if (error != null) defaultExecutor().execute(() -> {
         try {
           resolver.resolve(callback.call(), null);
         } catch (RuntimeException ex) {
@@ -528,7 +1469,7 @@ public class Promise<R> {
    */
   public void error(final VoidReturnCallback<Throwable> callback) {
     __pipe(this, (arg, error, resolver) -> {
-      if (error != null) instance.execute(() -> {
+      if (error != null) defaultExecutor().execute(() -> {
         try {
           callback.call(error);
           resolver.resolve(null, null);
@@ -545,7 +1486,7 @@ public class Promise<R> {
    */
   public void error(final VoidArgVoidReturnCallback callback) {
     __pipe(this, (arg, error, resolver) -> {
-      if (error != null) instance.execute(() -> {
+      if (error != null) defaultExecutor().execute(() -> {
         try {
           callback.call();
           resolver.resolve(null, null);
@@ -576,6 +1517,352 @@ public class Promise<R> {
     Rejected
   }
 
+  /**
+   * settled value of a promise
+   */
+  private static final class Outcome {
+    /**
+     * shared outcome for promises fulfilled without a value
+     */
+    static final Outcome FULFILLED = new Outcome(null, null);
+    /**
+     *
+     */
+    final Object result;
+    /**
+     *
+     */
+    final Throwable error;
+    /**
+     * promise the promises linked to a root settled on its own settle instead, or null
+     */
+    final Promise<?> successor;
+
+    Outcome(Object result, Throwable error) {
+      this(result, error, null);
+    }
+
+    Outcome(Object result, Throwable error, Promise<?> successor) {
+      this.result = result;
+      this.error = error;
+      this.successor = successor;
+    }
+  }
+
+  /**
+   * marks a promise that has been adopted by another one and settles in its place
+   */
+  private static final class Link {
+    /**
+     *
+     */
+    final Promise<?> target;
+
+    Link(Promise<?> target) {
+      this.target = target;
+    }
+  }
+
+  /**
+   * cancels a promise a root waits for with a handler once the root settles first,
+   * since nothing else was waiting for it
+   */
+  private static final class Stop implements Resolver<Object> {
+    /**
+     *
+     */
+    final Promise<?> inner;
+
+    Stop(Promise<?> inner) {
+      this.inner = inner;
+    }
+
+    @Override
+    public void resolve(Object result, Throwable error) {
+      inner.cancel();
+    }
+  }
+
+  /**
+   * outcome waiting to be dispatched to handlers on a {@link Trampoline}
+   */
+  private static final class Dispatch {
+    /**
+     *
+     */
+    final Node handlers;
+    /**
+     *
+     */
+    final Object result;
+    /**
+     *
+     */
+    final Throwable error;
+    /**
+     *
+     */
+    Dispatch next;
+
+    Dispatch(Node handlers, Object result, Throwable error) {
+      this.handlers = handlers;
+      this.result = result;
+      this.error = error;
+    }
+  }
+
+  /**
+   * per thread queue of outcomes waiting to be dispatched while the thread is already
+   * calling handlers
+   */
+  private static final class Trampoline {
+    /**
+     *
+     */
+    boolean draining;
+    /**
+     *
+     */
+    Dispatch head;
+    /**
+     *
+     */
+    Dispatch tail;
+
+    void add(Dispatch dispatch) {
+      if (tail == null) head = dispatch;
+      else tail.next = dispatch;
+      tail = dispatch;
+    }
+
+    Dispatch poll() {
+      Dispatch dispatch = head;
+      if (dispatch != null) {
+        head = dispatch.next;
+        if (head == null) tail = null;
+      }
+      return dispatch;
+    }
+  }
+
+  /**
+   * creates a fresh promise running the same callback as the one it belongs to
+   */
+  private interface Origin {
+    /**
+     * @return fresh promise
+     */
+    Promise<?> restart();
+  }
+
+  /**
+   * task running the callback of a promise created with one
+   */
+  @SuppressWarnings("unchecked")
+  private static final class Launch implements Runnable, Origin {
+    /**
+     *
+     */
+    final Promise promise;
+    /**
+     *
+     */
+    final Executor executor;
+    /**
+     *
+     */
+    final CallbackWithResolver callback;
+    /**
+     *
+     */
+    final Resolver resolver;
+
+    Launch(Promise promise, Executor executor, CallbackWithResolver callback) {
+      this.promise = promise;
+      this.executor = executor;
+      this.callback = callback;
+      this.resolver = promise.resolver();
+    }
+
+    @Override
+    public void run() {
+      // a promise cancelled before its task started does not run the callback
+      if (promise.isDone()) return;
+      final long startedAt = promise.recordQueueWait(promise.chainStart);
+      try {
+        callback.call(null, resolver);
+      } catch (RuntimeException ex) {
+        promise.complete(null, ex);
+      }
+      promise.recordExecution(startedAt);
+    }
+
+    @Override
+    public Promise<?> restart() {
+      return new Promise<>(executor, callback);
+    }
+  }
+
+  /**
+   * entry in the lock free stack of handlers registered while pending
+   */
+  private static final class Node {
+    /**
+     *
+     */
+    private static final AtomicReferenceFieldUpdater<Node, Resolver> RESOLVER =
+        AtomicReferenceFieldUpdater.newUpdater(Node.class, Resolver.class, "resolver");
+    /**
+     * cleared when the promise that registered it is cancelled
+     */
+    volatile Resolver resolver;
+    /**
+     * linked promise the handler was registered through, null if registered on the
+     * promise whose stack holds it
+     */
+    Promise<?> owner;
+    /**
+     *
+     */
+    Node next;
+
+    Node(Resolver resolver) {
+      this.resolver = resolver;
+    }
+
+    /**
+     * @return the resolver, or null if it was taken already
+     */
+    Resolver take() {
+      return RESOLVER.getAndSet(this, null);
+    }
+  }
+
+  /**
+   * synchronous then callback bound to the promise it settles, stages registered on
+   * the same executor before this one has run are linked through {@link #next} and
+   * executed one after the other in a single task
+   */
+  @SuppressWarnings("unchecked")
+  private static final class Stage implements Origin {
+    /**
+     * marks a stage that has run and no longer accepts a fused successor
+     */
+    private static final Object SEALED = new Object();
+    /**
+     *
+     */
+    private static final AtomicReferenceFieldUpdater<Stage, Object> NEXT =
+        AtomicReferenceFieldUpdater.newUpdater(Stage.class, Object.class, "next");
+    /**
+     *
+     */
+    final Executor executor;
+    /**
+     *
+     */
+    final Callback2 callback;
+    /**
+     *
+     */
+    final Promise target;
+    /**
+     * fused successor, or {@link #SEALED}
+     */
+    volatile Object next;
+    /**
+     * promise the stage was added to, kept until the target is fulfilled to run the
+     * stage again
+     */
+    volatile Promise source;
+
+    Stage(Executor executor, Callback2 callback, Promise target) {
+      this.executor = executor;
+      this.callback = callback;
+      this.target = target;
+    }
+
+    @Override
+    public Promise<?> restart() {
+      return source.thenOn(executor, callback);
+    }
+
+    /**
+     * @param successor stage to run right after this one
+     * @return false if this stage has already run or already has a successor
+     */
+    boolean fuse(Stage successor) {
+      return NEXT.compareAndSet(this, null, successor);
+    }
+
+    /**
+     * @return the fused successor, or null if there is none or another call took it,
+     * no successor can be fused after this call
+     */
+    Stage seal() {
+      Object successor = NEXT.getAndSet(this, SEALED);
+      return successor == SEALED ? null : (Stage) successor;
+    }
+
+    /**
+     * runs this stage and every stage fused after it, an error skips the callbacks
+     * and rejects all of them, a handler throwing while a stage settles does not stop
+     * the stages after it, the first such exception is rethrown once all have run
+     *
+     * @param arg   result of the upstream promise
+     * @param error error of the upstream promise
+     */
+    void run(Object arg, Throwable error) {
+      RuntimeException thrown = null;
+      for (Stage current = this; current != null; current = current.seal()) {
+        if (current.target.isDone()) {
+          // cancelled, the stages fused after it continue from its outcome
+          arg = current.target.getResult();
+          error = current.target.getError();
+          continue;
+        }
+        Object value = null;
+        Throwable failure = error;
+        if (failure == null) {
+          final long startedAt = current.target.name != null && PromiseMetrics.isEnabled() ?
+              System.nanoTime() : 0;
+          try {
+            value = current.callback.call(arg);
+          } catch (RuntimeException ex) {
+            failure = ex;
+          }
+          current.target.recordExecution(startedAt);
+        }
+        if (value instanceof Promise) {
+          // settle like the returned promise and resume the fused stages in a new task
+          try {
+            current.target.adopt((Promise<?>) value);
+          } catch (RuntimeException ex) {
+            thrown = ex;
+          }
+          final Stage successor = current.seal();
+          if (successor != null) try {
+            current.target.register((result, ex) -> {
+              if (ex != null) successor.run(null, ex);
+              else successor.executor.execute(() -> successor.run(result, null));
+            });
+          } catch (RuntimeException ex) {
+            if (thrown == null) thrown = ex;
+          }
+          break;
+        }
+        try {
+          current.target.complete(value, failure);
+        } catch (RuntimeException ex) {
+          if (thrown == null) thrown = ex;
+        }
+        arg = value;
+        error = failure;
+      }
+      if (thrown != null) throw thrown;
+    }
+  }
+
   /**
    * @param <A>
    * @param <R>
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * caches promises by key, concurrent callers asking for a key that is being loaded
+ * share the same in flight load and fulfilled promises are kept for a time to live
+ * in a size bounded least recently used map, rejected loads are not cached, every
+ * caller gets its own promise so cancelling it only cancels the load once every
+ * caller waiting for it has cancelled
+ *
+ * @param <K> type of key
+ * @param <R> type of result
+ */
+public class PromiseCache<K, R> {
+  /**
+   * promises still loading
+   */
+  private final Map<K, Promise<R>> inFlight = new HashMap<>();
+  /**
+   * fulfilled promises in access order
+   */
+  private final LinkedHashMap<K, Entry<R>> completed;
+  /**
+   * maximum number of fulfilled promises kept
+   */
+  private final int maxSize;
+  /**
+   * time to live of a fulfilled promise in nanos
+   */
+  private final long ttlNanos;
+
+  /**
+   * @param maxSize   maximum number of fulfilled promises kept, zero to only share
+   *                  loads in flight
+   * @param ttlMillis time a fulfilled promise is kept for, zero to only share loads
+   *                  in flight
+   */
+  public PromiseCache(final int maxSize, long ttlMillis) {
+    if (maxSize < 0) throw new IllegalArgumentException("maxSize must not be negative");
+    if (ttlMillis < 0) throw new IllegalArgumentException("ttlMillis must not be negative");
+    this.maxSize = maxSize;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.completed = new LinkedHashMap<K, Entry<R>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Entry<R>> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * gets the cached or in flight promise for the key, or loads it on the promise executor
+   *
+   * @param key    key of the result
+   * @param loader loads the result on a miss
+   * @return promise of the result for this caller only
+   */
+  @NonNull
+  public Promise<R> get(final K key, final Callable<? extends R> loader) {
+    final Promise<R> promise;
+    synchronized (this) {
+      Entry<R> entry = completed.get(key);
+      if (entry != null) {
+        if (System.nanoTime() - entry.expiresAt < 0) return entry.promise.derive();
+        completed.remove(key);
+      }
+      Promise<R> loading = inFlight.get(key);
+      if (loading != null) return loading.derive();
+      promise = new Promise<>((Callback2<Object, R>) arg -> {
+        try {
+          return loader.call();
+        } catch (RuntimeException e) {
+          throw e;
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+      inFlight.put(key, promise);
+    }
+    promise.pipe((result, error) -> {
+      synchronized (this) {
+        if (inFlight.get(key) != promise) return;
+        // a rejected load, including one cancelled by all of its callers, is dropped
+        inFlight.remove(key);
+        if (error == null && maxSize > 0 && ttlNanos > 0)
+          completed.put(key, new Entry<>(promise, System.nanoTime() + ttlNanos));
+      }
+    });
+    return promise.derive();
+  }
+
+  /**
+   * drops the cached promise for the key, a load in flight is no longer shared with
+   * new callers
+   *
+   * @param key key to drop
+   */
+  public synchronized void invalidate(K key) {
+    completed.remove(key);
+    inFlight.remove(key);
+  }
+
+  /**
+   * drops every cached and in flight promise
+   */
+  public synchronized void clear() {
+    completed.clear();
+    inFlight.clear();
+  }
+
+  /**
+   * @return number of fulfilled promises kept, including expired ones not yet dropped
+   */
+  public synchronized int size() {
+    return completed.size();
+  }
+
+  /**
+   * fulfilled promise with its expiry
+   *
+   * @param <R>
+   */
+  private static final class Entry<R> {
+    /**
+     *
+     */
+    final Promise<R> promise;
+    /**
+     * {@link System#nanoTime()} after which the promise is dropped
+     */
+    final long expiresAt;
+
+    Entry(Promise<R> promise, long expiresAt) {
+      this.promise = promise;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
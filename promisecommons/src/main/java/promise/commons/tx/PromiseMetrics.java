@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import promise.commons.util.LatencyHistogram;
+
+/**
+ * opt in latency recording for promise stages, stages are named with
+ * {@link Promise#named(String)} and tasks passed to
+ * {@link promise.commons.AndroidPromise#execute(Runnable)} are recorded under
+ * {@link #EXECUTOR_STAGE}, when disabled recording costs a volatile read
+ */
+public final class PromiseMetrics {
+  /**
+   * stage every task submitted to the promise executor is recorded under
+   */
+  public static final String EXECUTOR_STAGE = "AndroidPromise.execute";
+  /**
+   *
+   */
+  private static final ConcurrentHashMap<String, Stage> stages = new ConcurrentHashMap<>();
+  /**
+   *
+   */
+  private static volatile boolean enabled;
+
+  private PromiseMetrics() {
+  }
+
+  /**
+   * starts recording
+   */
+  public static void enable() {
+    enabled = true;
+  }
+
+  /**
+   * stops recording, recorded values are kept until {@link #reset()}
+   */
+  public static void disable() {
+    enabled = false;
+  }
+
+  /**
+   * @return true if recording
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * clears the recorded values of every stage
+   */
+  public static void reset() {
+    stages.clear();
+  }
+
+  /**
+   * @return copy of the recorded values of every stage by stage name
+   */
+  @NonNull
+  public static Map<String, StageSnapshot> snapshot() {
+    Map<String, StageSnapshot> snapshot = new HashMap<>();
+    for (Map.Entry<String, Stage> entry : stages.entrySet())
+      snapshot.put(entry.getKey(), entry.getValue().snapshot());
+    return snapshot;
+  }
+
+  /**
+   * @param name name of the stage
+   * @return copy of the recorded values of the stage, or null if nothing was recorded
+   */
+  public static StageSnapshot snapshot(String name) {
+    Stage stage = stages.get(name);
+    return stage != null ? stage.snapshot() : null;
+  }
+
+  /**
+   * @param name name of the stage
+   * @return histograms of the stage, created on first use
+   */
+  static Stage stage(String name) {
+    Stage stage = stages.get(name);
+    if (stage == null) {
+      Stage created = new Stage();
+      stage = stages.putIfAbsent(name, created);
+      if (stage == null) stage = created;
+    }
+    return stage;
+  }
+
+  /**
+   * wraps the task so that the time it waits in the executor queue and the time it
+   * runs for are recorded under the stage
+   *
+   * @param name     name of the stage
+   * @param runnable task
+   * @return the recording task
+   */
+  public static Runnable instrument(final String name, final Runnable runnable) {
+    final long queuedAt = System.nanoTime();
+    return () -> {
+      Stage stage = stage(name);
+      long startedAt = System.nanoTime();
+      stage.queueWait.record(startedAt - queuedAt);
+      try {
+        runnable.run();
+      } finally {
+        stage.execution.record(System.nanoTime() - startedAt);
+      }
+    };
+  }
+
+  /**
+   * histograms of one stage
+   */
+  static final class Stage {
+    /**
+     * time between being submitted to an executor and starting to run
+     */
+    final LatencyHistogram queueWait = new LatencyHistogram();
+    /**
+     * time the callback runs for
+     */
+    final LatencyHistogram execution = new LatencyHistogram();
+    /**
+     * time between the start of the chain and the stage settling
+     */
+    final LatencyHistogram chain = new LatencyHistogram();
+
+    StageSnapshot snapshot() {
+      return new StageSnapshot(queueWait.snapshot(), execution.snapshot(), chain.snapshot());
+    }
+  }
+
+  /**
+   * recorded values of one stage at one point in time
+   */
+  public static final class StageSnapshot {
+    /**
+     *
+     */
+    private final LatencyHistogram.Snapshot queueWait;
+    /**
+     *
+     */
+    private final LatencyHistogram.Snapshot execution;
+    /**
+     *
+     */
+    private final LatencyHistogram.Snapshot chain;
+
+    StageSnapshot(LatencyHistogram.Snapshot queueWait, LatencyHistogram.Snapshot execution,
+                  LatencyHistogram.Snapshot chain) {
+      this.queueWait = queueWait;
+      this.execution = execution;
+      this.chain = chain;
+    }
+
+    /**
+     * @return time between being submitted to an executor and starting to run
+     */
+    public LatencyHistogram.Snapshot getQueueWait() {
+      return queueWait;
+    }
+
+    /**
+     * @return time the callback runs for
+     */
+    public LatencyHistogram.Snapshot getExecution() {
+      return execution;
+    }
+
+    /**
+     * @return time between the start of the chain and the stage settling
+     */
+    public LatencyHistogram.Snapshot getChain() {
+      return chain;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+      return "StageSnapshot{" +
+          "queueWait=" + queueWait +
+          ", execution=" + execution +
+          ", chain=" + chain +
+          '}';
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import promise.commons.AndroidPromise;
+import promise.commons.model.List;
+
+/**
+ * owns the promises launched in it, tying them to a lifecycle such as a screen,
+ * at most maxConcurrency of its tasks run on the promise executor at once, the first
+ * failing child cancels the others and closing the scope cancels all of them
+ */
+public class PromiseScope {
+  /**
+   *
+   */
+  private final int maxConcurrency;
+  /**
+   * children that have not settled yet
+   */
+  private final Set<Promise<?>> children =
+      Collections.newSetFromMap(new ConcurrentHashMap<Promise<?>, Boolean>());
+  /**
+   * tasks waiting for a free slot
+   */
+  private final ConcurrentLinkedQueue<Job<?>> queue = new ConcurrentLinkedQueue<>();
+  /**
+   * number of tasks running
+   */
+  private final AtomicInteger running = new AtomicInteger();
+  /**
+   * number of children that have not settled yet
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+  /**
+   * promises returned by {@link #awaitAll()} waiting for the children to settle
+   */
+  private final List<Promise<Object>> waiters = new List<>();
+  /**
+   * first error a child was rejected with
+   */
+  private volatile Throwable failure;
+  /**
+   *
+   */
+  private volatile boolean closed;
+
+  /**
+   * @param maxConcurrency maximum number of tasks running at once
+   */
+  public PromiseScope(int maxConcurrency) {
+    if (maxConcurrency < 1)
+      throw new IllegalArgumentException("maxConcurrency must be more than zero");
+    this.maxConcurrency = maxConcurrency;
+  }
+
+  /**
+   * queues the task and runs it on the promise executor once a slot is free, a task
+   * whose promise is cancelled before it starts is skipped
+   *
+   * @param task task to run
+   * @param <R>  type of result
+   * @return promise of the result, rejected if the scope is closed or has failed
+   */
+  @NonNull
+  public <R> Promise<R> launch(final Callable<? extends R> task) {
+    if (closed) return Promise.rejected(new CancellationException("scope is closed"));
+    Throwable failure = this.failure;
+    if (failure != null) return Promise.rejected(new CancellationException("scope has failed"));
+    final Promise<R> promise = Promise.pending();
+    children.add(promise);
+    pending.incrementAndGet();
+    promise.pipe((result, error) -> {
+      children.remove(promise);
+      if (error != null && !(error instanceof CancellationException)) fail(error);
+      if (pending.decrementAndGet() == 0) notifyWaiters();
+    });
+    // the scope may have been closed while the child was being added
+    if (closed) promise.cancel();
+    else {
+      queue.add(new Job<>(promise, task));
+      drain();
+    }
+    return promise;
+  }
+
+  /**
+   * @return promise fulfilled once every child launched so far has settled, rejected
+   * with the error of the first child that failed
+   */
+  @NonNull
+  public Promise<Object> awaitAll() {
+    final Promise<Object> waiter = Promise.pending();
+    synchronized (waiters) {
+      waiters.add(waiter);
+    }
+    if (pending.get() == 0) notifyWaiters();
+    return waiter;
+  }
+
+  /**
+   * cancels every child and rejects the tasks launched afterwards
+   */
+  public void close() {
+    closed = true;
+    cancelChildren();
+  }
+
+  /**
+   * @return true once the scope has been closed
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * @return number of children that have not settled yet
+   */
+  public int size() {
+    return pending.get();
+  }
+
+  /**
+   * starts queued tasks while slots are free
+   */
+  private void drain() {
+    for (; ; ) {
+      int count = running.get();
+      if (count >= maxConcurrency || queue.isEmpty()) return;
+      if (!running.compareAndSet(count, count + 1)) continue;
+      final Job<?> job = queue.poll();
+      if (job == null) {
+        running.decrementAndGet();
+        continue;
+      }
+      AndroidPromise.instance().execute(() -> {
+        try {
+          job.run();
+        } finally {
+          running.decrementAndGet();
+          drain();
+        }
+      });
+    }
+  }
+
+  /**
+   * @param error error of the first child that failed
+   */
+  private void fail(Throwable error) {
+    synchronized (this) {
+      if (failure != null) return;
+      failure = error;
+    }
+    cancelChildren();
+  }
+
+  /**
+   *
+   */
+  private void cancelChildren() {
+    for (Promise<?> child : children) child.cancel();
+    queue.clear();
+  }
+
+  /**
+   * settles the promises returned by {@link #awaitAll()}
+   */
+  private void notifyWaiters() {
+    List<Promise<Object>> notifying;
+    synchronized (waiters) {
+      if (waiters.isEmpty()) return;
+      notifying = new List<>(waiters);
+      waiters.clear();
+    }
+    Throwable failure = this.failure;
+    for (Promise<Object> waiter : notifying) waiter.complete(null, failure);
+  }
+
+  /**
+   * task bound to the promise it settles
+   *
+   * @param <R>
+   */
+  private static final class Job<R> {
+    /**
+     *
+     */
+    final Promise<R> promise;
+    /**
+     *
+     */
+    final Callable<? extends R> task;
+
+    Job(Promise<R> promise, Callable<? extends R> task) {
+      this.promise = promise;
+      this.task = task;
+    }
+
+    void run() {
+      if (promise.isDone()) return;
+      R result;
+      try {
+        result = task.call();
+      } catch (Throwable e) {
+        // errors too, or the child never settles and awaitAll never returns
+        promise.complete(null, e);
+        return;
+      }
+      promise.complete(result, null);
+    }
+  }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import androidx.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import promise.commons.AndroidPromise;
+import promise.commons.model.List;
+
+/**
+ * asynchronous sequence of items delivered as they are produced, items are only
+ * produced once a subscriber asks for them with {@link Subscription#request(long)},
+ * so a slow subscriber slows the source down instead of items piling up in memory
+ *
+ * @param <T> type of item
+ */
+public abstract class PromiseStream<T> {
+  /**
+   * items a source emits in one task before giving other tasks on the promise
+   * executor a turn
+   */
+  private static final int BATCH = 256;
+
+  /**
+   * starts delivering signals to the subscriber, beginning with
+   * {@link Subscriber#onSubscribe(Subscription)}
+   *
+   * @param subscriber subscriber
+   */
+  public abstract void subscribe(@NonNull Subscriber<? super T> subscriber);
+
+  /**
+   * stream of the items of the iterable, read on the promise executor, every
+   * subscriber gets a fresh iterator
+   *
+   * @param items items
+   * @param <T>
+   * @return
+   */
+  @NonNull
+  public static <T> PromiseStream<T> from(@NonNull final Iterable<? extends T> items) {
+    return new PromiseStream<T>() {
+      @Override
+      public void subscribe(@NonNull Subscriber<? super T> subscriber) {
+        Iterator<? extends T> iterator;
+        try {
+          iterator = items.iterator();
+        } catch (RuntimeException e) {
+          subscriber.onSubscribe(new Source<T>(null, null));
+          subscriber.onError(e);
+          return;
+        }
+        Source<T> source = new Source<>(iterator, subscriber);
+        subscriber.onSubscribe(source);
+      }
+    };
+  }
+
+  /**
+   * stream of the remaining items of the iterator, read on the promise executor,
+   * hasNext and next may block, for instance while reading a file, only one subscriber
+   * is allowed
+   *
+   * @param iterator items
+   * @param <T>
+   * @return
+   */
+  @NonNull
+  public static <T> PromiseStream<T> from(@NonNull final Iterator<? extends T> iterator) {
+    final AtomicBoolean subscribed = new AtomicBoolean();
+    return new PromiseStream<T>() {
+      @Override
+      public void subscribe(@NonNull Subscriber<? super T> subscriber) {
+        if (subscribed.compareAndSet(false, true))
+          subscriber.onSubscribe(new Source<>(iterator, subscriber));
+        else {
+          subscriber.onSubscribe(new Source<T>(null, null));
+          subscriber.onError(new IllegalStateException("iterator stream allows one subscriber"));
+        }
+      }
+    };
+  }
+
+  /**
+   * @param mapper maps every item, an exception rejects the stream
+   * @param <R>
+   * @return stream of the mapped items
+   */
+  @NonNull
+  public <R> PromiseStream<R> map(@NonNull final Callback2<? super T, ? extends R> mapper) {
+    final PromiseStream<T> source = this;
+    return new PromiseStream<R>() {
+      @Override
+      public void subscribe(@NonNull Subscriber<? super R> subscriber) {
+        source.subscribe(new Operator<T, R>(subscriber) {
+          @Override
+          public void onNext(T item) {
+            if (done) return;
+            R mapped;
+            try {
+              mapped = mapper.call(item);
+            } catch (RuntimeException e) {
+              fail(e);
+              return;
+            }
+            downstream.onNext(mapped);
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * @param predicate keeps the items it returns true for, an exception rejects the stream
+   * @return stream of the kept items
+   */
+  @NonNull
+  public PromiseStream<T> filter(@NonNull final Callback2<? super T, Boolean> predicate) {
+    final PromiseStream<T> source = this;
+    return new PromiseStream<T>() {
+      @Override
+      public void subscribe(@NonNull Subscriber<? super T> subscriber) {
+        source.subscribe(new Operator<T, T>(subscriber) {
+          @Override
+          public void onNext(T item) {
+            if (done) return;
+            boolean keep;
+            try {
+              keep = Boolean.TRUE.equals(predicate.call(item));
+            } catch (RuntimeException e) {
+              fail(e);
+              return;
+            }
+            if (keep) downstream.onNext(item);
+            // the dropped item was asked for, ask for a replacement
+            else upstream.request(1);
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * @param size number of items in a chunk
+   * @return stream of chunks of consecutive items, the last one may be smaller
+   */
+  @NonNull
+  public PromiseStream<List<T>> buffer(final int size) {
+    if (size < 1) throw new IllegalArgumentException("size must be more than zero");
+    final PromiseStream<T> source = this;
+    return new PromiseStream<List<T>>() {
+      @Override
+      public void subscribe(@NonNull Subscriber<? super List<T>> subscriber) {
+        source.subscribe(new Operator<T, List<T>>(subscriber) {
+          List<T> chunk = new List<>(size);
+
+          @Override
+          public void request(long n) {
+            if (n <= 0) {
+              super.request(n);
+              return;
+            }
+            super.request(n > Long.MAX_VALUE / size ? Long.MAX_VALUE : n * size);
+          }
+
+          @Override
+          public void onNext(T item) {
+            if (done) return;
+            chunk.add(item);
+            if (chunk.size() < size) return;
+            List<T> full = chunk;
+            chunk = new List<>(size);
+            downstream.onNext(full);
+          }
+
+          @Override
+          public void onComplete() {
+            if (done) return;
+            if (!chunk.isEmpty()) downstream.onNext(chunk);
+            chunk = null;
+            super.onComplete();
+          }
+        });
+      }
+    };
+  }
+
+  /**
+   * reads the whole stream, cancelling the promise cancels the stream
+   *
+   * @return promise of every item in order
+   */
+  @NonNull
+  public Promise<List<T>> collect() {
+    final List<T> items = new List<>();
+    return consume(items::add, items);
+  }
+
+  /**
+   * calls the consumer with every item as it arrives, the next item is only read once
+   * the consumer returns, cancelling the promise cancels the stream
+   *
+   * @param consumer consumer, an exception rejects the promise
+   * @return promise fulfilled once every item was consumed
+   */
+  @NonNull
+  public Promise<Object> forEach(@NonNull final VoidReturnCallback<? super T> consumer) {
+    return consume(consumer::call, null);
+  }
+
+  /**
+   * @param consumer consumer
+   * @param result   value to fulfill the promise with
+   * @param <R>
+   * @return promise settled once the stream ends
+   */
+  private <R> Promise<R> consume(final VoidReturnCallback<? super T> consumer, final Object result) {
+    final Promise<R> promise = Promise.pending();
+    subscribe(new Subscriber<T>() {
+      Subscription subscription;
+
+      @Override
+      public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        promise.pipe((ignored, error) -> {
+          if (error != null) subscription.cancel();
+        });
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(T item) {
+        if (promise.isDone()) return;
+        try {
+          consumer.call(item);
+        } catch (RuntimeException e) {
+          subscription.cancel();
+          promise.complete(null, e);
+        }
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        promise.complete(null, error);
+      }
+
+      @Override
+      public void onComplete() {
+        promise.complete(result, null);
+      }
+    });
+    return promise;
+  }
+
+  /**
+   * receives the items of a stream, signals are never delivered concurrently
+   *
+   * @param <T>
+   */
+  public interface Subscriber<T> {
+    /**
+     * @param subscription used to ask for items and to cancel
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * @param item next item, never more than asked for
+     */
+    void onNext(T item);
+
+    /**
+     * @param error error that ended the stream
+     */
+    void onError(Throwable error);
+
+    /**
+     * called once every item was delivered
+     */
+    void onComplete();
+  }
+
+  /**
+   * demand of a subscriber
+   */
+  public interface Subscription {
+    /**
+     * @param n number of further items the subscriber can take, more than zero
+     */
+    void request(long n);
+
+    /**
+     * stops delivering items, signals already under way may still arrive
+     */
+    void cancel();
+  }
+
+  /**
+   * reads an iterator on the promise executor while there is demand
+   *
+   * @param <T>
+   */
+  private static final class Source<T> implements Subscription, Runnable {
+    /**
+     *
+     */
+    private final Iterator<? extends T> iterator;
+    /**
+     *
+     */
+    private final Subscriber<? super T> subscriber;
+    /**
+     * items asked for and not delivered yet
+     */
+    private final AtomicLong requested = new AtomicLong();
+    /**
+     * number of times the source was signalled while draining, the drain runs while
+     * it is not zero
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+    /**
+     *
+     */
+    private volatile boolean cancelled;
+    /**
+     * error of an invalid request, emitted by the drain so signals never overlap
+     */
+    private volatile Throwable invalidRequest;
+
+    /**
+     * @param iterator   items, null for a source that never emits
+     * @param subscriber subscriber
+     */
+    Source(Iterator<? extends T> iterator, Subscriber<? super T> subscriber) {
+      this.iterator = iterator;
+      this.subscriber = subscriber;
+      if (iterator == null) cancelled = true;
+    }
+
+    @Override
+    public void request(long n) {
+      if (cancelled) return;
+      if (n <= 0) {
+        if (invalidRequest == null)
+          invalidRequest = new IllegalArgumentException("request must be more than zero, was " + n);
+      } else for (; ; ) {
+        long current = requested.get();
+        long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        if (requested.compareAndSet(current, next)) break;
+      }
+      if (wip.getAndIncrement() == 0) AndroidPromise.instance().execute(this);
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+
+    @Override
+    public void run() {
+      int missed = 1;
+      int emitted = 0;
+      for (; ; ) {
+        long demand = requested.get();
+        long delivered = 0;
+        while (delivered != demand) {
+          if (stopped()) return;
+          if (emitted == BATCH) {
+            // still draining, so the rescheduled task is the only one running
+            produced(demand, delivered);
+            AndroidPromise.instance().execute(this);
+            return;
+          }
+          T item;
+          try {
+            if (!iterator.hasNext()) {
+              complete(null);
+              return;
+            }
+            item = iterator.next();
+          } catch (RuntimeException e) {
+            complete(e);
+            return;
+          }
+          try {
+            subscriber.onNext(item);
+          } catch (RuntimeException e) {
+            complete(e);
+            return;
+          }
+          delivered++;
+          emitted++;
+        }
+        if (stopped()) return;
+        // end the stream without waiting for demand the subscriber may never send
+        try {
+          if (!iterator.hasNext()) {
+            complete(null);
+            return;
+          }
+        } catch (RuntimeException e) {
+          complete(e);
+          return;
+        }
+        produced(demand, delivered);
+        missed = wip.addAndGet(-missed);
+        if (missed == 0) return;
+      }
+    }
+
+    /**
+     * @return true if the drain has to stop, after emitting the error of an invalid request
+     */
+    private boolean stopped() {
+      if (cancelled) return true;
+      Throwable error = invalidRequest;
+      if (error == null) return false;
+      complete(error);
+      return true;
+    }
+
+    /**
+     * @param demand    demand the drain started with
+     * @param delivered items delivered since
+     */
+    private void produced(long demand, long delivered) {
+      if (delivered != 0 && demand != Long.MAX_VALUE) requested.addAndGet(-delivered);
+    }
+
+    /**
+     * @param error error that ended the stream, null if it ended normally
+     */
+    private void complete(Throwable error) {
+      cancelled = true;
+      if (error != null) subscriber.onError(error);
+      else subscriber.onComplete();
+    }
+  }
+
+  /**
+   * subscriber in the middle of a stream that forwards demand upstream
+   *
+   * @param <T> type of item received
+   * @param <R> type of item delivered
+   */
+  private abstract static class Operator<T, R> implements Subscriber<T>, Subscription {
+    /**
+     *
+     */
+    final Subscriber<? super R> downstream;
+    /**
+     *
+     */
+    Subscription upstream;
+    /**
+     * set once a terminal signal was sent downstream
+     */
+    boolean done;
+
+    Operator(Subscriber<? super R> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.upstream = subscription;
+      downstream.onSubscribe(this);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      if (done) return;
+      done = true;
+      downstream.onError(error);
+    }
+
+    @Override
+    public void onComplete() {
+      if (done) return;
+      done = true;
+      downstream.onComplete();
+    }
+
+    @Override
+    public void request(long n) {
+      upstream.request(n);
+    }
+
+    @Override
+    public void cancel() {
+      upstream.cancel();
+    }
+
+    /**
+     * @param error error thrown by the operator callback
+     */
+    void fail(Throwable error) {
+      upstream.cancel();
+      onError(error);
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import promise.commons.AndroidPromise;
+import promise.commons.data.log.LogUtil;
+
+/**
+ * reports promises that stay pending for longer than a threshold, and promises that
+ * became unreachable without ever settling, which usually means a resolver that is
+ * never called, while enabled every pending promise is tracked with the stack trace
+ * of where it was created
+ */
+public final class PromiseWatchdog {
+  /**
+   *
+   */
+  private static final String TAG = LogUtil.makeTag(PromiseWatchdog.class);
+  /**
+   * number of independently locked parts of the registry, a power of two
+   */
+  private static final int STRIPES = 16;
+  /**
+   * tracked promises, split so that concurrent creation does not contend on one lock
+   */
+  private static final Stripe[] stripes = new Stripe[STRIPES];
+  /**
+   * receives the entries of tracked promises that were garbage collected
+   */
+  private static final ReferenceQueue<Promise<?>> collected = new ReferenceQueue<>();
+  /**
+   *
+   */
+  private static volatile boolean enabled;
+  /**
+   *
+   */
+  private static volatile long thresholdNanos;
+  /**
+   *
+   */
+  private static volatile long sweepMillis;
+  /**
+   *
+   */
+  private static volatile Listener listener;
+  /**
+   * incremented on every enable and disable, stops sweeps scheduled by an earlier enable
+   */
+  private static volatile int generation;
+
+  static {
+    for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+  }
+
+  private PromiseWatchdog() {
+  }
+
+  /**
+   * starts tracking pending promises and logs the ones that hang
+   *
+   * @param thresholdMillis time a promise may stay pending before it is reported
+   * @param sweepMillis     interval between checks
+   */
+  public static void enable(long thresholdMillis, long sweepMillis) {
+    enable(thresholdMillis, sweepMillis, new Listener() {
+      @Override
+      public void onHung(Throwable site, long pendingMillis) {
+        LogUtil.w(TAG, site, "promise pending for ", pendingMillis, " millis");
+      }
+
+      @Override
+      public void onAbandoned(Throwable site, long pendingMillis) {
+        LogUtil.e(TAG, site, "promise became unreachable without settling after ",
+            pendingMillis, " millis");
+      }
+    });
+  }
+
+  /**
+   * starts tracking pending promises, only promises created afterwards are tracked
+   *
+   * @param thresholdMillis time a promise may stay pending before it is reported
+   * @param sweepMillis     interval between checks
+   * @param listener        receives the reports on the promise executor
+   */
+  public static synchronized void enable(long thresholdMillis, long sweepMillis, Listener listener) {
+    if (thresholdMillis < 1 || sweepMillis < 1)
+      throw new IllegalArgumentException("thresholdMillis and sweepMillis must be more than zero");
+    PromiseWatchdog.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    PromiseWatchdog.sweepMillis = sweepMillis;
+    PromiseWatchdog.listener = listener;
+    enabled = true;
+    schedule(++generation);
+  }
+
+  /**
+   * stops tracking and forgets the tracked promises
+   */
+  public static synchronized void disable() {
+    enabled = false;
+    generation++;
+    for (Stripe stripe : stripes)
+      synchronized (stripe) {
+        stripe.entries.clear();
+      }
+  }
+
+  /**
+   * @return number of tracked promises that have not settled
+   */
+  public static int pendingCount() {
+    int count = 0;
+    for (Stripe stripe : stripes)
+      synchronized (stripe) {
+        count += stripe.entries.size();
+      }
+    return count;
+  }
+
+  /**
+   * @param promise pending promise
+   * @return the entry to pass to {@link #unwatch(Object)}, or null when disabled
+   */
+  static Object watch(Promise<?> promise) {
+    if (!enabled) return null;
+    Entry entry = new Entry(promise, collected);
+    Stripe stripe = stripes[entry.stripe];
+    synchronized (stripe) {
+      stripe.entries.add(entry);
+    }
+    return entry;
+  }
+
+  /**
+   * @param watch entry of a promise that settled or no longer settles by itself
+   */
+  static void unwatch(Object watch) {
+    if (watch == null) return;
+    Entry entry = (Entry) watch;
+    Stripe stripe = stripes[entry.stripe];
+    synchronized (stripe) {
+      stripe.entries.remove(entry);
+    }
+  }
+
+  /**
+   * @param generation generation the sweep belongs to
+   */
+  private static void schedule(final int generation) {
+    AndroidPromise.instance().execute(() -> {
+      if (generation != PromiseWatchdog.generation) return;
+      sweep();
+      schedule(generation);
+    }, sweepMillis);
+  }
+
+  /**
+   * reports collected promises and promises pending beyond the threshold, each once
+   */
+  private static void sweep() {
+    Listener listener = PromiseWatchdog.listener;
+    long now = System.nanoTime();
+    for (Reference<? extends Promise<?>> reference; (reference = collected.poll()) != null; ) {
+      Entry entry = (Entry) reference;
+      Stripe stripe = stripes[entry.stripe];
+      boolean abandoned;
+      synchronized (stripe) {
+        abandoned = stripe.entries.remove(entry);
+      }
+      if (abandoned) listener.onAbandoned(entry.site, TimeUnit.NANOSECONDS.toMillis(now - entry.createdAt));
+    }
+    long threshold = thresholdNanos;
+    ArrayList<Entry> hung = new ArrayList<>();
+    for (Stripe stripe : stripes)
+      synchronized (stripe) {
+        for (Entry entry : stripe.entries)
+          if (!entry.reported && now - entry.createdAt > threshold) {
+            entry.reported = true;
+            hung.add(entry);
+          }
+      }
+    for (Entry entry : hung)
+      listener.onHung(entry.site, TimeUnit.NANOSECONDS.toMillis(now - entry.createdAt));
+  }
+
+  /**
+   * receives the reports of the watchdog
+   */
+  public interface Listener {
+    /**
+     * @param site          stack trace of where the promise was created
+     * @param pendingMillis time the promise has been pending for
+     */
+    void onHung(Throwable site, long pendingMillis);
+
+    /**
+     * @param site          stack trace of where the promise was created
+     * @param pendingMillis time the promise was pending for before it was collected
+     */
+    void onAbandoned(Throwable site, long pendingMillis);
+  }
+
+  /**
+   * part of the registry
+   */
+  private static final class Stripe {
+    /**
+     *
+     */
+    final Set<Entry> entries = new HashSet<>();
+  }
+
+  /**
+   * weakly reachable pending promise with where and when it was created
+   */
+  private static final class Entry extends WeakReference<Promise<?>> {
+    /**
+     *
+     */
+    final Throwable site;
+    /**
+     *
+     */
+    final long createdAt;
+    /**
+     *
+     */
+    final int stripe;
+    /**
+     * set once the promise was reported as hung
+     */
+    boolean reported;
+
+    Entry(Promise<?> promise, ReferenceQueue<Promise<?>> queue) {
+      super(promise, queue);
+      this.site = new Throwable("promise created here");
+      this.createdAt = System.nanoTime();
+      this.stripe = System.identityHashCode(promise) & (STRIPES - 1);
+    }
+  }
+}
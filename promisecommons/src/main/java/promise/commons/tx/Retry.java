@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import promise.commons.AndroidPromise;
+
+/**
+ * state of one {@link Promise#retry(RetryPolicy)} call, waits between attempts are
+ * scheduled on the promise timer so no thread is parked while backing off
+ *
+ * @param <R> type of result
+ */
+final class Retry<R> {
+  /**
+   * creates a new attempt
+   */
+  private final Callable<Promise<R>> origin;
+  /**
+   *
+   */
+  private final RetryPolicy policy;
+  /**
+   *
+   */
+  private final Promise<R> promise = Promise.pending();
+  /**
+   *
+   */
+  private final long startedAt = System.nanoTime();
+  /**
+   * guarded by this
+   */
+  private int attempts;
+  /**
+   * latest attempt, guarded by this
+   */
+  private Promise<R> current;
+  /**
+   * starts the next attempt, guarded by this
+   */
+  private ScheduledFuture<?> timer;
+  /**
+   * rejects the promise once the deadline passes, guarded by this
+   */
+  private ScheduledFuture<?> expiry;
+
+  Retry(Callable<Promise<R>> origin, RetryPolicy policy) {
+    this.origin = origin;
+    this.policy = policy;
+  }
+
+  /**
+   * @param first attempt already started, it is waited on through a derived promise so
+   *              that stopping the retry cancels it only if nothing else waits for it
+   * @return promise settled by the first successful attempt or the last failed one,
+   * rejected with a {@link TimeoutException} once the deadline passes, cancelling it
+   * cancels the attempt going on and no further attempt is started
+   */
+  Promise<R> start(Promise<R> first) {
+    promise.pipe((result, error) -> {
+      Promise<R> current;
+      synchronized (this) {
+        if (expiry != null) expiry.cancel(false);
+        if (timer != null) timer.cancel(false);
+        current = this.current;
+      }
+      // settled by the deadline or cancelled, stop whatever is still going on
+      if (error != null) current.cancel();
+    });
+    watch(first.derive());
+    final long deadline = policy.getDeadlineMillis();
+    if (deadline > 0) synchronized (this) {
+      // enforced on the promise itself rather than a derived one, so cancelling what
+      // the caller holds reaches the attempts directly
+      if (!promise.isDone()) expiry = AndroidPromise.instance().execute(() -> promise.complete(null,
+          new TimeoutException("retry timed out after " + deadline + " millis")), deadline);
+    }
+    return promise;
+  }
+
+  /**
+   * @param attempt attempt to settle the promise with
+   */
+  private void watch(Promise<R> attempt) {
+    synchronized (this) {
+      attempts++;
+      current = attempt;
+    }
+    if (promise.isDone()) attempt.cancel();
+    attempt.pipe((result, error) -> {
+      if (error == null) promise.complete(result, null);
+      else failed(error);
+    });
+  }
+
+  /**
+   * schedules the next attempt, or rejects the promise if the error is not retryable,
+   * no attempts are left or the wait would pass the deadline
+   *
+   * @param error error of the failed attempt
+   */
+  private void failed(Throwable error) {
+    if (promise.isDone()) return;
+    int attempts;
+    synchronized (this) {
+      attempts = this.attempts;
+    }
+    if (error instanceof CancellationException || attempts >= policy.getMaxAttempts() ||
+        !policy.isRetryable(error)) {
+      promise.complete(null, error);
+      return;
+    }
+    long delay = policy.delayMillis(attempts);
+    long deadline = policy.getDeadlineMillis();
+    if (deadline > 0 &&
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) + delay >= deadline) {
+      promise.complete(null, error);
+      return;
+    }
+    synchronized (this) {
+      if (promise.isDone()) return;
+      timer = AndroidPromise.instance().execute(this::retry, delay);
+    }
+  }
+
+  /**
+   * starts the next attempt
+   */
+  private void retry() {
+    if (promise.isDone()) return;
+    Promise<R> attempt;
+    try {
+      attempt = origin.call();
+    } catch (Exception e) {
+      promise.complete(null, e);
+      return;
+    }
+    watch(attempt);
+  }
+}
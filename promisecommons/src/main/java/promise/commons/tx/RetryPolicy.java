@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+
+/**
+ * how {@link Promise#retry(RetryPolicy)} retries a rejected promise, waits grow
+ * exponentially from the base delay up to the max delay and each wait is drawn at
+ * random below its cap so that clients failing together do not retry together
+ */
+public final class RetryPolicy {
+  /**
+   *
+   */
+  private static final Random random = new Random();
+  /**
+   *
+   */
+  private final int maxAttempts;
+  /**
+   *
+   */
+  private final long baseDelayMillis;
+  /**
+   *
+   */
+  private final long maxDelayMillis;
+  /**
+   *
+   */
+  private final long deadlineMillis;
+  /**
+   *
+   */
+  private final Retryable retryable;
+
+  private RetryPolicy(@NonNull Builder builder) {
+    maxAttempts = builder.maxAttempts;
+    baseDelayMillis = builder.baseDelayMillis;
+    maxDelayMillis = builder.maxDelayMillis;
+    deadlineMillis = builder.deadlineMillis;
+    retryable = builder.retryable;
+  }
+
+  @NonNull
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /**
+   * @return maximum number of attempts including the first one
+   */
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @return time from the first attempt after which the promise is rejected with a
+   * {@link java.util.concurrent.TimeoutException}, zero for no deadline
+   */
+  public long getDeadlineMillis() {
+    return deadlineMillis;
+  }
+
+  /**
+   * @param error error an attempt was rejected with
+   * @return true if another attempt may succeed
+   */
+  public boolean isRetryable(Throwable error) {
+    return retryable == null || retryable.isRetryable(error);
+  }
+
+  /**
+   * @param attempt number of attempts made so far
+   * @return random wait between zero and the exponential cap for the attempt
+   */
+  public long delayMillis(int attempt) {
+    int shift = Math.min(Math.max(attempt - 1, 0), 30);
+    // saturates at the maximum instead of overflowing for large base delays
+    long cap = baseDelayMillis > maxDelayMillis >> shift ? maxDelayMillis : baseDelayMillis << shift;
+    return (long) (random.nextDouble() * (cap + 1.0));
+  }
+
+  /**
+   * decides which errors are worth retrying
+   */
+  public interface Retryable {
+    /**
+     * @param error error an attempt was rejected with
+     * @return true if another attempt may succeed
+     */
+    boolean isRetryable(Throwable error);
+  }
+
+  public static final class Builder {
+    int maxAttempts = 3;
+    long baseDelayMillis = 100;
+    long maxDelayMillis = 10000;
+    long deadlineMillis;
+    Retryable retryable;
+
+    private Builder() {
+    }
+
+    /**
+     * @param val maximum number of attempts including the first one, defaults to 3
+     */
+    @NonNull
+    public Builder maxAttempts(int val) {
+      if (val < 1) throw new IllegalArgumentException("maxAttempts must be more than zero");
+      maxAttempts = val;
+      return this;
+    }
+
+    /**
+     * @param val cap of the wait before the first retry, doubled for every later one,
+     *            defaults to 100
+     */
+    @NonNull
+    public Builder baseDelayMillis(long val) {
+      if (val < 0) throw new IllegalArgumentException("baseDelayMillis must not be negative");
+      baseDelayMillis = val;
+      return this;
+    }
+
+    /**
+     * @param val largest cap of a wait, defaults to 10000
+     */
+    @NonNull
+    public Builder maxDelayMillis(long val) {
+      if (val < 0) throw new IllegalArgumentException("maxDelayMillis must not be negative");
+      maxDelayMillis = val;
+      return this;
+    }
+
+    /**
+     * @param val time from the first attempt after which retrying stops, zero for none
+     */
+    @NonNull
+    public Builder deadlineMillis(long val) {
+      if (val < 0) throw new IllegalArgumentException("deadlineMillis must not be negative");
+      deadlineMillis = val;
+      return this;
+    }
+
+    /**
+     * @param val decides which errors are retried, every error is by default
+     */
+    @NonNull
+    public Builder retryOn(Retryable val) {
+      retryable = val;
+      return this;
+    }
+
+    @NonNull
+    public RetryPolicy build() {
+      return new RetryPolicy(this);
+    }
+  }
+}
@@ -42,13 +42,6 @@ public abstract class TimedTransaction<RETURN, PROGRESS, ARGUMENT> extends Trans
   public void execute(@Nullable ARGUMENT[] params, long millis) {
     if (millis < 1)
       throw new IllegalArgumentException("wait millis time must be more than zero");
-    AndroidPromise.instance().execute(() -> {
-      try {
-        Thread.sleep(millis);
-        super.execute(params);
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      }
-    });
+    AndroidPromise.instance().execute(() -> super.execute(params), millis);
   }
 }
@@ -18,7 +18,10 @@ import android.os.AsyncTask;
 
 import androidx.annotation.Nullable;
 
+import java.util.concurrent.Executor;
+
 import promise.commons.AndroidPromise;
+import promise.commons.exec.Lane;
 import promise.commons.model.List;
 
 /**
@@ -74,12 +77,23 @@ public abstract class Transaction<RETURN, PROGRESS, ARGUMENT> implements Future
    * @param params given arguments
    */
   public void execute(@Nullable ARGUMENT[] params) {
+    execute(params, Lane.IO);
+  }
+
+  /**
+   * executes with the given arguments on the executor of the lane
+   *
+   * @param params given arguments
+   * @param lane   kind of work the callbacks do
+   */
+  public void execute(@Nullable ARGUMENT[] params, Lane lane) {
     try {
       checkCallBacks();
       if (task != null) return;
       task = new Task();
-      if (params != null) task.executeOnExecutor(AndroidPromise.instance().executor(), params);
-      else task.executeOnExecutor(AndroidPromise.instance().executor(), (ARGUMENT) null);
+      Executor executor = AndroidPromise.instance().executor(lane);
+      if (params != null) task.executeOnExecutor(executor, params);
+      else task.executeOnExecutor(executor, (ARGUMENT) null);
     } catch (NoCallBacksError error) {
       error.show();
     }
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * lock free histogram of latencies in nanos, values are counted in buckets of
+ * logarithmic magnitude each split into {@link #SUB_BUCKETS} linear sub buckets, so
+ * recording is a few atomic increments and percentiles are accurate to about 6%
+ */
+public class LatencyHistogram {
+  /**
+   * linear sub buckets per power of two, values below it get a bucket each
+   */
+  private static final int SUB_BUCKETS = 16;
+  /**
+   * log2 of {@link #SUB_BUCKETS}
+   */
+  private static final int SUB_BUCKET_BITS = 4;
+  /**
+   * enough buckets for any positive long
+   */
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+  /**
+   *
+   */
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  /**
+   *
+   */
+  private final AtomicLong sum = new AtomicLong();
+  /**
+   *
+   */
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * @param value value
+   * @return index of the bucket counting the value
+   */
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * @param bucket index of a bucket
+   * @return highest value counted in the bucket
+   */
+  private static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) return bucket;
+    int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int sub = bucket % SUB_BUCKETS;
+    int shift = magnitude - SUB_BUCKET_BITS;
+    return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+  }
+
+  /**
+   * records a latency, negative values are recorded as zero
+   *
+   * @param nanos latency in nanos
+   */
+  public void record(long nanos) {
+    if (nanos < 0) nanos = 0;
+    counts.incrementAndGet(bucket(nanos));
+    sum.addAndGet(nanos);
+    long current;
+    while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) ;
+  }
+
+  /**
+   * clears every recorded value
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /**
+   * @return copy of the recorded values, values recorded while copying may or may not
+   * be included
+   */
+  @NonNull
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) total += copy[i] = counts.get(i);
+    return new Snapshot(copy, total, sum.get(), max.get());
+  }
+
+  /**
+   * recorded values at one point in time
+   */
+  public static class Snapshot {
+    /**
+     *
+     */
+    private final long[] counts;
+    /**
+     *
+     */
+    private final long count;
+    /**
+     *
+     */
+    private final long sum;
+    /**
+     *
+     */
+    private final long max;
+
+    Snapshot(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * @return highest recorded value in nanos
+     */
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * @return mean of the recorded values in nanos
+     */
+    public double getMean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return value in nanos that the given percentage of recorded values do not exceed
+     */
+    public long getValueAtPercentile(double percentile) {
+      if (count == 0) return 0;
+      long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * count);
+      if (rank < 1) rank = 1;
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) return Math.min(highestValue(i), max);
+      }
+      return max;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+      return "Snapshot{" +
+          "count=" + count +
+          ", mean=" + TimeUnit.NANOSECONDS.toMicros((long) getMean()) + "us" +
+          ", p50=" + TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(50)) + "us" +
+          ", p99=" + TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99)) + "us" +
+          ", max=" + TimeUnit.NANOSECONDS.toMicros(max) + "us" +
+          '}';
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import promise.commons.model.Message;
+import promise.commons.tx.PromiseResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AndroidPromiseTest {
+  @Test
+  public void pooledMessageStaysValidForAsyncListener() throws InterruptedException {
+    AndroidPromise promise = TestPromise.instance();
+    final int count = 200;
+    final ExecutorService later = Executors.newSingleThreadExecutor();
+    final Set<Long> seen = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    final CountDownLatch done = new CountDownLatch(count);
+    // hands the message over like a ui callback does, it is read after the bus let go of it
+    int id = promise.listen("pooled-async", new PromiseResult<Object, Throwable>()
+        .withCallback(message -> later.execute(() -> {
+          try {
+            Thread.sleep(1);
+          } catch (InterruptedException ignored) {
+          }
+          Message received = (Message) message;
+          if ("pooled-async".equals(received.sender())) seen.add(received.value());
+          done.countDown();
+        })));
+    for (long i = 1; i <= count; i++) promise.send("pooled-async", i);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(count, seen.size());
+    promise.stopListening(id);
+    later.shutdown();
+  }
+
+  @Test
+  public void delayedExecutionRunsOnceWaitElapsed() throws InterruptedException {
+    AndroidPromise promise = TestPromise.instance();
+    final CountDownLatch ran = new CountDownLatch(1);
+    final long start = System.nanoTime();
+    final long[] waited = new long[1];
+    promise.execute(() -> {
+      waited[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      ran.countDown();
+    }, 50);
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertTrue(waited[0] >= 50);
+  }
+
+  @Test
+  public void cancelledDelayedExecutionDoesNotRun() throws InterruptedException {
+    AndroidPromise promise = TestPromise.instance();
+    final AtomicBoolean ran = new AtomicBoolean();
+    ScheduledFuture<?> future = promise.execute(() -> ran.set(true), 50);
+    assertTrue(future.cancel(false));
+    Thread.sleep(150);
+    assertFalse(ran.get());
+  }
+
+  @Test
+  public void pendingDelaysDoNotHoldExecutorThreads() throws InterruptedException {
+    AndroidPromise promise = TestPromise.instance();
+    final AtomicBoolean delayedRan = new AtomicBoolean();
+    List<ScheduledFuture<?>> delayed = new ArrayList<>();
+    for (int i = 0; i < 64; i++) delayed.add(promise.execute(() -> delayedRan.set(true), 10_000));
+    final CountDownLatch ran = new CountDownLatch(1);
+    promise.execute(ran::countDown);
+    assertTrue(ran.await(1, TimeUnit.SECONDS));
+    for (ScheduledFuture<?> future : delayed) future.cancel(false);
+    assertFalse(delayedRan.get());
+  }
+}
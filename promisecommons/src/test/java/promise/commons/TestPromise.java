@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons;
+
+import android.app.Application;
+
+/**
+ * promise shared by the tests, it can only be initialized once per process
+ */
+public final class TestPromise {
+  private static boolean initialized;
+
+  private TestPromise() {
+  }
+
+  /**
+   * @return promise with four threads
+   */
+  public static synchronized AndroidPromise instance() {
+    if (!initialized) {
+      AndroidPromise.init(new Application(), 4, false);
+      initialized = true;
+    }
+    return AndroidPromise.instance();
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.bus;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import promise.commons.model.Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferBusTest {
+  /**
+   * executor whose tasks run when the test says so, so messages pile up in the ring
+   */
+  private static final class ManualExecutor implements Executor {
+    final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable runnable) {
+      tasks.add(runnable);
+    }
+
+    void runAll() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) task.run();
+    }
+  }
+
+  /**
+   * @param policy  what a full ring does
+   * @param dropped counts the messages reported dropped
+   * @return bus with rings of three messages
+   */
+  private static RingBufferBus bus(OverflowPolicy policy, final AtomicLong dropped) {
+    return RingBufferBus.newBuilder()
+        .capacity(3)
+        .overflowPolicy(policy)
+        .slowSubscriberListener((topic, lagMillis, count) -> dropped.addAndGet(count))
+        .build();
+  }
+
+  /**
+   * @param policy  what a full ring does
+   * @param count   messages sent before the subscriber is drained
+   * @param dropped counts the messages reported dropped
+   * @return values received, in order
+   */
+  private static List<Long> deliver(OverflowPolicy policy, int count, AtomicLong dropped) {
+    RingBufferBus bus = bus(policy, dropped);
+    ManualExecutor executor = new ManualExecutor();
+    final List<Long> values = new ArrayList<>();
+    bus.subscribe("prices", executor, message -> values.add(message.value()));
+    for (long i = 1; i <= count; i++) bus.send(Message.obtain("prices", i));
+    executor.runAll();
+    return values;
+  }
+
+  @Test
+  public void dropOldestKeepsLatestMessages() {
+    AtomicLong dropped = new AtomicLong();
+    assertEquals(Arrays.asList(3L, 4L, 5L), deliver(OverflowPolicy.DROP_OLDEST, 5, dropped));
+    assertEquals(2, dropped.get());
+  }
+
+  @Test
+  public void dropNewestKeepsFirstMessages() {
+    AtomicLong dropped = new AtomicLong();
+    assertEquals(Arrays.asList(1L, 2L, 3L), deliver(OverflowPolicy.DROP_NEWEST, 5, dropped));
+    assertEquals(2, dropped.get());
+  }
+
+  @Test
+  public void nothingIsDroppedWithinCapacity() {
+    AtomicLong dropped = new AtomicLong();
+    assertEquals(Arrays.asList(1L, 2L, 3L), deliver(OverflowPolicy.DROP_OLDEST, 3, dropped));
+    assertEquals(0, dropped.get());
+  }
+
+  @Test
+  public void coalesceReplacesLatestMessageOfSameSender() {
+    AtomicLong dropped = new AtomicLong();
+    RingBufferBus bus = bus(OverflowPolicy.COALESCE_BY_SENDER, dropped);
+    ManualExecutor executor = new ManualExecutor();
+    final List<String> received = new ArrayList<>();
+    bus.subscribePattern("feed/*", executor,
+        message -> received.add(message.sender() + "=" + message.value()));
+    bus.send(Message.obtain("feed/a", 1L));
+    bus.send(Message.obtain("feed/b", 1L));
+    bus.send(Message.obtain("feed/a", 2L));
+    // full, replaces feed/a=2
+    bus.send(Message.obtain("feed/a", 3L));
+    // full and no feed/c queued, so the oldest is dropped
+    bus.send(Message.obtain("feed/c", 1L));
+    executor.runAll();
+    assertEquals(Arrays.asList("feed/b=1", "feed/a=3", "feed/c=1"), received);
+    assertEquals(2, dropped.get());
+  }
+
+  @Test
+  public void blockWaitsForRoomWithoutDropping() throws InterruptedException {
+    AtomicLong dropped = new AtomicLong();
+    RingBufferBus bus = bus(OverflowPolicy.BLOCK, dropped);
+    ExecutorService subscriberThread = Executors.newSingleThreadExecutor();
+    ExecutorService senderThread = Executors.newSingleThreadExecutor();
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch delivered = new CountDownLatch(8);
+    final List<Long> values = Collections.synchronizedList(new ArrayList<Long>());
+    bus.subscribe("prices", subscriberThread, message -> {
+      values.add(message.value());
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException ignored) {
+      }
+      delivered.countDown();
+    });
+    final CountDownLatch sent = new CountDownLatch(1);
+    senderThread.execute(() -> {
+      for (long i = 1; i <= 8; i++) bus.send(Message.obtain("prices", i));
+      sent.countDown();
+    });
+    // at most a batch of three is taken by the blocked drain and three wait in the ring,
+    // so a later send waits for room
+    assertFalse(sent.await(100, TimeUnit.MILLISECONDS));
+    release.countDown();
+    assertTrue(sent.await(5, TimeUnit.SECONDS));
+    assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L), values);
+    assertEquals(0, dropped.get());
+    subscriberThread.shutdown();
+    senderThread.shutdown();
+  }
+
+  @Test
+  public void unsubscribingReleasesBlockedSender() throws InterruptedException {
+    AtomicLong dropped = new AtomicLong();
+    final RingBufferBus bus = bus(OverflowPolicy.BLOCK, dropped);
+    ManualExecutor executor = new ManualExecutor();
+    final int id = bus.subscribe("prices", executor, message -> {
+    });
+    ExecutorService senderThread = Executors.newSingleThreadExecutor();
+    final CountDownLatch sent = new CountDownLatch(1);
+    senderThread.execute(() -> {
+      // nothing drains the ring, so the fourth send waits
+      for (long i = 1; i <= 4; i++) bus.send(Message.obtain("prices", i));
+      sent.countDown();
+    });
+    assertFalse(sent.await(100, TimeUnit.MILLISECONDS));
+    bus.unsubscribe(id);
+    assertTrue(sent.await(5, TimeUnit.SECONDS));
+    senderThread.shutdown();
+  }
+
+  @Test
+  public void slowSubscriberIsReportedOnce() {
+    final AtomicLong reports = new AtomicLong();
+    RingBufferBus bus = RingBufferBus.newBuilder()
+        .capacity(2)
+        .batchSize(1)
+        .slowSubscriberListener((topic, lagMillis, dropped) -> reports.incrementAndGet())
+        .build();
+    ManualExecutor executor = new ManualExecutor();
+    bus.subscribe("prices", executor, message -> {
+    });
+    for (long i = 1; i <= 5; i++) bus.send(Message.obtain("prices", i));
+    executor.runAll();
+    assertEquals(1, reports.get());
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.bus;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import promise.commons.model.Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TopicBusTest {
+  /**
+   * calls the subscriber on the sending thread
+   */
+  private static final Executor DIRECT = Runnable::run;
+
+  /**
+   * @param values collects the values of the messages received
+   * @return subscriber
+   */
+  private static MessageBus.Subscriber into(final List<Long> values) {
+    return message -> values.add(message.value());
+  }
+
+  /**
+   * @param pattern pattern to subscribe to
+   * @param topics  topics to send one message each to, valued by position
+   * @return values of the messages the pattern received
+   */
+  private static List<Long> received(String pattern, String... topics) {
+    TopicBus bus = new TopicBus();
+    List<Long> values = Collections.synchronizedList(new ArrayList<Long>());
+    bus.subscribePattern(pattern, DIRECT, into(values));
+    for (int i = 0; i < topics.length; i++) bus.send(Message.obtain(topics[i], (long) i));
+    return values;
+  }
+
+  @Test
+  public void starMatchesExactlyOneSegment() {
+    assertEquals(Arrays.asList(1L, 3L),
+        received("chat/*", "chat", "chat/a", "chat/a/b", "chat/b", "other/a"));
+    assertEquals(Arrays.asList(0L, 2L),
+        received("*/read", "chat/read", "chat/write", "mail/read", "read"));
+  }
+
+  @Test
+  public void hashMatchesAnyRemainingSegments() {
+    assertEquals(Arrays.asList(0L, 1L, 2L),
+        received("account/#", "account", "account/a", "account/a/b", "accounts/a", "other"));
+    assertEquals(Arrays.asList(0L, 1L, 2L), received("#", "a", "a/b", "c"));
+    assertEquals(Arrays.asList(1L),
+        received("chat/*/#", "chat", "chat/a/b", "mail/a/b"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void hashMustBeLastSegment() {
+    new TopicBus().subscribePattern("chat/#/a", DIRECT, message -> {
+    });
+  }
+
+  @Test
+  public void exactAndPatternSubscribersBothReceive() {
+    TopicBus bus = new TopicBus();
+    List<Long> exact = Collections.synchronizedList(new ArrayList<Long>());
+    List<Long> pattern = Collections.synchronizedList(new ArrayList<Long>());
+    bus.subscribe("chat/a", DIRECT, into(exact));
+    int id = bus.subscribePattern("chat/*", DIRECT, into(pattern));
+    bus.send(Message.obtain("chat/a", 1L));
+    bus.unsubscribe(id);
+    bus.send(Message.obtain("chat/a", 2L));
+    assertEquals(Arrays.asList(1L, 2L), exact);
+    assertEquals(Collections.singletonList(1L), pattern);
+  }
+
+  @Test
+  public void unsubscribingDuringDeliveryStopsTheSubscriber() {
+    final TopicBus bus = new TopicBus();
+    final List<Long> first = Collections.synchronizedList(new ArrayList<Long>());
+    final List<Long> second = Collections.synchronizedList(new ArrayList<Long>());
+    final int[] ids = new int[2];
+    // the first subscriber drops itself and the second on the first message
+    ids[0] = bus.subscribe("prices", DIRECT, message -> {
+      first.add(message.value());
+      bus.unsubscribe(ids[0]);
+      bus.unsubscribe(ids[1]);
+    });
+    ids[1] = bus.subscribe("prices", DIRECT, into(second));
+    bus.send(Message.obtain("prices", 1L));
+    bus.send(Message.obtain("prices", 2L));
+    assertEquals(Collections.singletonList(1L), first);
+    assertTrue(second.isEmpty());
+  }
+
+  @Test
+  public void subscribingDuringDeliveryReceivesLaterMessages() {
+    final TopicBus bus = new TopicBus();
+    final List<Long> late = Collections.synchronizedList(new ArrayList<Long>());
+    final boolean[] subscribed = new boolean[1];
+    bus.subscribe("prices", DIRECT, message -> {
+      if (subscribed[0]) return;
+      subscribed[0] = true;
+      bus.subscribe("prices", DIRECT, into(late));
+    });
+    bus.send(Message.obtain("prices", 1L));
+    bus.send(Message.obtain("prices", 2L));
+    assertEquals(Collections.singletonList(2L), late);
+  }
+
+  @Test
+  public void lateSubscriberReceivesRetainedMessages() {
+    TopicBus bus = new TopicBus();
+    bus.sticky("prices", 2);
+    for (long i = 1; i <= 3; i++) bus.send(Message.obtain("prices", i));
+    List<Long> values = Collections.synchronizedList(new ArrayList<Long>());
+    bus.subscribe("prices", DIRECT, into(values));
+    bus.send(Message.obtain("prices", 4L));
+    assertEquals(Arrays.asList(2L, 3L, 4L), values);
+  }
+
+  @Test
+  public void plainTopicIsNotReplayed() {
+    TopicBus bus = new TopicBus();
+    bus.send(Message.obtain("prices", 1L));
+    List<Long> values = Collections.synchronizedList(new ArrayList<Long>());
+    bus.subscribe("prices", DIRECT, into(values));
+    assertTrue(values.isEmpty());
+  }
+
+  @Test
+  public void stoppingStickyForgetsRetainedMessages() {
+    TopicBus bus = new TopicBus();
+    bus.sticky("prices", 1);
+    bus.send(Message.obtain("prices", 1L));
+    bus.sticky("prices", 0);
+    List<Long> values = Collections.synchronizedList(new ArrayList<Long>());
+    bus.subscribe("prices", DIRECT, into(values));
+    assertTrue(values.isEmpty());
+  }
+
+  @Test
+  public void patternSubscriberIsNotReplayed() {
+    TopicBus bus = new TopicBus();
+    bus.sticky("prices/eur", 1);
+    bus.send(Message.obtain("prices/eur", 1L));
+    List<Long> values = Collections.synchronizedList(new ArrayList<Long>());
+    bus.subscribePattern("prices/*", DIRECT, into(values));
+    bus.send(Message.obtain("prices/eur", 2L));
+    assertEquals(Collections.singletonList(2L), values);
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import promise.commons.tx.PromiseResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FanOutTest {
+  private ExecutorService executor;
+  private final AtomicReference<promise.commons.model.List<?>> result = new AtomicReference<>();
+  private final AtomicReference<Throwable> error = new AtomicReference<>();
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(8);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return receives the results or the error and counts down {@link #done}
+   */
+  private PromiseResult<promise.commons.model.List<?>, Throwable> delivery() {
+    return new PromiseResult<promise.commons.model.List<?>, Throwable>()
+        .withCallback(list -> {
+          result.set(list);
+          done.countDown();
+        })
+        .withErrorCallback(e -> {
+          error.set(e);
+          done.countDown();
+        });
+  }
+
+  @Test
+  public void deliversResultsInOrder() throws InterruptedException {
+    List<Callable<Integer>> actions = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      final int value = i;
+      // later callables finish first
+      actions.add(() -> {
+        Thread.sleep(20 - value);
+        return value;
+      });
+    }
+    FanOut.start(executor, actions, 4, false, delivery());
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertNull(error.get());
+    assertEquals(20, result.get().size());
+    for (int i = 0; i < 20; i++) assertEquals(i, result.get().get(i));
+  }
+
+  @Test
+  public void runsAtMostConcurrencyAtOnce() throws InterruptedException {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger peak = new AtomicInteger();
+    List<Callable<Object>> actions = new ArrayList<>();
+    for (int i = 0; i < 30; i++)
+      actions.add(() -> {
+        int now = running.incrementAndGet();
+        while (true) {
+          int max = peak.get();
+          if (now <= max || peak.compareAndSet(max, now)) break;
+        }
+        Thread.sleep(5);
+        running.decrementAndGet();
+        return null;
+      });
+    FanOut.start(executor, actions, 3, false, delivery());
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(peak.get() <= 3);
+  }
+
+  @Test
+  public void failFastDeliversFirstErrorAndSkipsTheRest() throws InterruptedException {
+    final AtomicInteger ran = new AtomicInteger();
+    final IllegalStateException failure = new IllegalStateException("failed");
+    List<Callable<Object>> actions = new ArrayList<>();
+    actions.add(() -> {
+      throw failure;
+    });
+    for (int i = 0; i < 10; i++)
+      actions.add(() -> {
+        ran.incrementAndGet();
+        return null;
+      });
+    FanOut.start(executor, actions, 1, true, delivery());
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(failure, error.get());
+    assertNull(result.get());
+    assertEquals(0, ran.get());
+  }
+
+  @Test
+  public void withoutFailFastRunsEveryCallableBeforeTheError() throws InterruptedException {
+    final AtomicInteger ran = new AtomicInteger();
+    final IllegalStateException failure = new IllegalStateException("failed");
+    List<Callable<Object>> actions = new ArrayList<>();
+    actions.add(() -> {
+      throw failure;
+    });
+    for (int i = 0; i < 10; i++)
+      actions.add(() -> {
+        ran.incrementAndGet();
+        return null;
+      });
+    FanOut.start(executor, actions, 1, false, delivery());
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(failure, error.get());
+    assertEquals(10, ran.get());
+  }
+
+  @Test
+  public void emptyActionsDeliverRightAway() {
+    FanOut fanOut = FanOut.start(executor, Collections.<Callable<Object>>emptyList(), 2,
+        false, delivery());
+    assertTrue(fanOut.isDone());
+    assertEquals(0, result.get().size());
+  }
+
+  @Test
+  public void cancelSkipsCallablesNotStarted() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger ran = new AtomicInteger();
+    List<Callable<Object>> actions = new ArrayList<>();
+    actions.add(() -> {
+      started.countDown();
+      release.await();
+      return null;
+    });
+    actions.add(() -> {
+      ran.incrementAndGet();
+      return null;
+    });
+    FanOut fanOut = FanOut.start(executor, actions, 1, false, delivery());
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertTrue(fanOut.cancel());
+    assertFalse(fanOut.cancel());
+    release.countDown();
+    assertTrue(error.get() instanceof CancellationException);
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(0, ran.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsConcurrencyBelowOne() {
+    FanOut.start(executor, Collections.<Callable<Object>>emptyList(), 0, false, delivery());
+  }
+}
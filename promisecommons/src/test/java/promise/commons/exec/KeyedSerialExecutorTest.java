@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import promise.commons.AndroidPromise;
+import promise.commons.TestPromise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyedSerialExecutorTest {
+  /**
+   * executor whose tasks run when the test says so
+   */
+  private static final class ManualExecutor implements Executor {
+    final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable runnable) {
+      tasks.add(runnable);
+    }
+
+    /**
+     * runs the tasks until none are left, errors they throw are collected
+     *
+     * @return errors thrown by the tasks
+     */
+    List<Error> runAll() {
+      List<Error> errors = new ArrayList<>();
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (Error e) {
+          errors.add(e);
+        }
+      }
+      return errors;
+    }
+  }
+
+  @Test
+  public void executeSerialKeepsOrderPerKey() throws InterruptedException {
+    AndroidPromise promise = TestPromise.instance();
+    final int keys = 8;
+    final int tasks = 500;
+    final List<List<Integer>> seen = new ArrayList<>();
+    for (int k = 0; k < keys; k++) seen.add(Collections.synchronizedList(new ArrayList<Integer>()));
+    final CountDownLatch done = new CountDownLatch(keys * tasks);
+    for (int i = 0; i < tasks; i++)
+      for (int k = 0; k < keys; k++) {
+        final int key = k;
+        final int value = i;
+        promise.executeSerial("key-" + key, () -> {
+          seen.get(key).add(value);
+          done.countDown();
+        });
+      }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    for (List<Integer> values : seen) {
+      assertEquals(tasks, values.size());
+      for (int i = 0; i < tasks; i++) assertEquals(i, (int) values.get(i));
+    }
+  }
+
+  @Test
+  public void busyKeyYieldsToOtherKeys() {
+    ManualExecutor executor = new ManualExecutor();
+    KeyedSerialExecutor keyed = new KeyedSerialExecutor(executor, 2);
+    final List<String> ran = new ArrayList<>();
+    for (int i = 0; i < 200; i++) keyed.execute(0, () -> ran.add("busy"));
+    keyed.execute(1, () -> ran.add("other"));
+    executor.runAll();
+    assertEquals(201, ran.size());
+    // the busy stripe hands its thread back after a batch of 64
+    assertEquals(64, ran.indexOf("other"));
+  }
+
+  @Test
+  public void errorDoesNotStopKey() {
+    ManualExecutor executor = new ManualExecutor();
+    KeyedSerialExecutor keyed = new KeyedSerialExecutor(executor, 1);
+    final AtomicInteger ran = new AtomicInteger();
+    keyed.execute("key", () -> {
+      throw new AssertionError("task failed");
+    });
+    keyed.execute("key", ran::incrementAndGet);
+    assertEquals(1, executor.runAll().size());
+    assertEquals(1, ran.get());
+    keyed.execute("key", ran::incrementAndGet);
+    executor.runAll();
+    assertEquals(2, ran.get());
+  }
+
+  @Test
+  public void rejectedDrainIsScheduledAgain() {
+    final AtomicBoolean reject = new AtomicBoolean(true);
+    Executor executor = runnable -> {
+      if (reject.getAndSet(false)) throw new RejectedExecutionException("rejected");
+      runnable.run();
+    };
+    KeyedSerialExecutor keyed = new KeyedSerialExecutor(executor, 1);
+    final AtomicInteger ran = new AtomicInteger();
+    try {
+      keyed.execute("key", ran::incrementAndGet);
+      fail("rejection was swallowed");
+    } catch (RejectedExecutionException expected) {
+    }
+    keyed.execute("key", ran::incrementAndGet);
+    assertEquals(1, ran.get());
+    assertEquals(0, keyed.getQueueDepth());
+  }
+}
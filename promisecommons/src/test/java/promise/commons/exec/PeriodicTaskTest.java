@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PeriodicTaskTest {
+  @Test
+  public void stopsOnceExecutorIsShutDown() throws InterruptedException {
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+    PromiseExecutor executor = PromiseExecutor.io(1, 1);
+    final CountDownLatch ran = new CountDownLatch(2);
+    PeriodicTask task = PeriodicTask.start(timer, executor, ran::countDown,
+        PeriodicSchedule.fixedRate(10));
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    executor.shutdown();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!task.isCancelled() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+    assertTrue(task.isCancelled());
+    long runs = task.getRuns();
+    Thread.sleep(50);
+    assertEquals(runs, task.getRuns());
+    timer.shutdownNow();
+  }
+
+  @Test
+  public void neverRunsOnTimer() throws Exception {
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+    final Thread[] timerThread = new Thread[1];
+    timer.submit(() -> timerThread[0] = Thread.currentThread()).get();
+    PromiseExecutor executor = PromiseExecutor.io(1, 1);
+    final AtomicInteger onTimer = new AtomicInteger();
+    final CountDownLatch ran = new CountDownLatch(20);
+    PeriodicTask[] tasks = new PeriodicTask[10];
+    // more slow jobs than the executor has threads and queue
+    for (int i = 0; i < tasks.length; i++)
+      tasks[i] = PeriodicTask.start(timer, executor, () -> {
+        if (Thread.currentThread() == timerThread[0]) onTimer.incrementAndGet();
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException ignored) {
+        }
+        ran.countDown();
+      }, PeriodicSchedule.fixedRate(5));
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    for (PeriodicTask task : tasks) task.cancel();
+    assertEquals(0, onTimer.get());
+    timer.shutdownNow();
+    executor.shutdownNow();
+  }
+}
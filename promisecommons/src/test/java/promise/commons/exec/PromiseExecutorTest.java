@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PromiseExecutorTest {
+  @Test
+  public void fullQueueNeverRunsOnSubmitter() throws InterruptedException {
+    PromiseExecutor executor = PromiseExecutor.io(1, 1);
+    final Thread submitter = Thread.currentThread();
+    final AtomicInteger inline = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(10);
+    for (int i = 0; i < 10; i++)
+      executor.execute(() -> {
+        if (Thread.currentThread() == submitter) inline.incrementAndGet();
+        try {
+          release.await();
+        } catch (InterruptedException ignored) {
+        }
+        done.countDown();
+      });
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, inline.get());
+    assertTrue(executor.getRejectedCount() > 0);
+    executor.shutdown();
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void rejectsAfterShutdown() {
+    PromiseExecutor executor = PromiseExecutor.compute(1, 1);
+    executor.shutdown();
+    executor.execute(() -> {
+    });
+  }
+
+  @Test
+  public void shutdownNowDrainsOverflow() throws InterruptedException {
+    PromiseExecutor executor = PromiseExecutor.io(1, 1);
+    final CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < 10; i++)
+      executor.execute(() -> {
+        try {
+          release.await();
+        } catch (InterruptedException ignored) {
+        }
+      });
+    List<Runnable> drained = executor.shutdownNow();
+    // one task runs on the pool and one on the overflow, the rest never started
+    assertEquals(8, drained.size());
+    release.countDown();
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.exec;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import promise.commons.tx.PromiseResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TaskTest {
+  @Test
+  public void deliversResult() throws Exception {
+    PromiseExecutor executor = PromiseExecutor.io(2, 8);
+    TaskRegistry registry = new TaskRegistry();
+    final AtomicReference<Integer> result = new AtomicReference<>();
+    final CountDownLatch done = new CountDownLatch(1);
+    Task<Integer> task = Task.start(executor, registry, () -> 42,
+        new PromiseResult<Integer, Throwable>().withCallback(value -> {
+          result.set(value);
+          done.countDown();
+        }));
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(42, (int) result.get());
+    assertEquals(42, (int) task.get());
+    assertEquals(0, registry.size());
+    executor.shutdown();
+  }
+
+  @Test
+  public void deliversRejectionAfterShutdown() {
+    PromiseExecutor executor = PromiseExecutor.io(1, 1);
+    executor.shutdown();
+    TaskRegistry registry = new TaskRegistry();
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    Task.start(executor, registry, () -> 1,
+        new PromiseResult<Integer, Throwable>().withErrorCallback(error::set));
+    assertTrue(error.get() instanceof RejectedExecutionException);
+    assertEquals(0, registry.size());
+  }
+
+  @Test
+  public void deliversRejectionToDrainedTasks() throws InterruptedException {
+    PromiseExecutor executor = PromiseExecutor.io(1, 4);
+    TaskRegistry registry = new TaskRegistry();
+    final CountDownLatch started = new CountDownLatch(1);
+    final AtomicInteger rejected = new AtomicInteger();
+    PromiseResult<Integer, Throwable> result = new PromiseResult<Integer, Throwable>()
+        .withErrorCallback(e -> {
+          if (e instanceof RejectedExecutionException) rejected.incrementAndGet();
+        });
+    Task.start(executor, registry, () -> {
+      started.countDown();
+      Thread.sleep(10_000);
+      return 0;
+    }, result);
+    for (int i = 0; i < 3; i++) Task.start(executor, registry, () -> 1, result);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    List<Runnable> drained = executor.shutdownNow();
+    registry.rejectAll(drained);
+    registry.cancelAll();
+    assertEquals(3, drained.size());
+    assertEquals(3, rejected.get());
+    // the interrupted task leaves the registry on its own thread
+    long deadline = System.currentTimeMillis() + 5000;
+    while (registry.size() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+    assertEquals(0, registry.size());
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MessageTest {
+  @Test
+  public void recycledMessageIsReused() {
+    Message message = Message.obtain("sender", 7L);
+    message.recycle();
+    assertNull(message.sender());
+    Message reused = Message.obtain("other", 8L);
+    assertSame(message, reused);
+    reused.recycle();
+  }
+
+  @Test
+  public void retainedMessageOutlivesOneRecycle() {
+    Message message = Message.obtain("sender", 7L).retain();
+    message.recycle();
+    assertEquals("sender", message.sender());
+    message.recycle();
+    assertNull(message.sender());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void recyclingTwiceFails() {
+    Message message = Message.obtain("sender", 7L);
+    message.recycle();
+    message.recycle();
+  }
+
+  @Test
+  public void detachCopiesPooledMessage() {
+    Message message = Message.obtain("sender", 7L);
+    Message copy = message.detach();
+    message.recycle();
+    assertNotSame(message, copy);
+    assertEquals("sender", copy.sender());
+    assertEquals(7L, copy.value());
+    Message plain = new Message("sender", "payload");
+    assertSame(plain, plain.detach());
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+/**
+ * waits for promises in tests
+ */
+final class Await {
+  private Await() {
+  }
+
+  /**
+   * @param promise promise to wait for
+   * @param millis  longest wait
+   * @return true if the promise settled in time
+   */
+  static boolean settled(Promise<?> promise, long millis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + millis;
+    while (!promise.isDone()) {
+      if (System.currentTimeMillis() > deadline) return false;
+      Thread.sleep(1);
+    }
+    return true;
+  }
+}
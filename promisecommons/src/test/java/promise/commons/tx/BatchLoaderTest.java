@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import promise.commons.TestPromise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchLoaderTest {
+  @BeforeClass
+  public static void init() {
+    TestPromise.instance();
+  }
+
+  private static BatchLoader<Integer, Integer> loader(final List<List<Integer>> calls,
+                                                      int maxBatchSize, long windowMillis) {
+    return new BatchLoader<>(keys -> {
+      synchronized (calls) {
+        calls.add(new ArrayList<>(keys));
+      }
+      Map<Integer, Integer> values = new HashMap<>();
+      for (Integer key : keys) if (key >= 0) values.put(key, key * 10);
+      return values;
+    }, maxBatchSize, windowMillis);
+  }
+
+  @Test
+  public void loadsKeysOfWindowInOneCall() throws InterruptedException {
+    List<List<Integer>> calls = new ArrayList<>();
+    BatchLoader<Integer, Integer> loader = loader(calls, 100, 20);
+    Promise<Integer> one = loader.load(1);
+    Promise<Integer> two = loader.load(2);
+    Promise<Integer> three = loader.load(3);
+    loader.load(2);
+    assertTrue(Await.settled(three, 5000));
+    assertTrue(Await.settled(one, 5000));
+    assertTrue(Await.settled(two, 5000));
+    assertEquals(10, (int) one.getResult());
+    assertEquals(20, (int) two.getResult());
+    assertEquals(30, (int) three.getResult());
+    assertEquals(Arrays.asList(Arrays.asList(1, 2, 3)), calls);
+  }
+
+  @Test
+  public void fullBatchLoadsBeforeWindow() throws InterruptedException {
+    List<List<Integer>> calls = new ArrayList<>();
+    BatchLoader<Integer, Integer> loader = loader(calls, 2, 60_000);
+    loader.load(1);
+    Promise<Integer> two = loader.load(2);
+    Promise<Integer> three = loader.load(3);
+    assertTrue(Await.settled(two, 5000));
+    assertEquals(20, (int) two.getResult());
+    assertFalse(three.isDone());
+    loader.dispatch();
+    assertTrue(Await.settled(three, 5000));
+    assertEquals(30, (int) three.getResult());
+    assertEquals(2, calls.size());
+  }
+
+  @Test
+  public void missingKeyIsRejected() throws InterruptedException {
+    BatchLoader<Integer, Integer> loader = loader(new ArrayList<List<Integer>>(), 10, 5);
+    Promise<Integer> missing = loader.load(-1);
+    assertTrue(Await.settled(missing, 5000));
+    assertTrue(missing.getError() instanceof NoSuchElementException);
+  }
+
+  @Test
+  public void batchFunctionErrorRejectsEveryKey() throws InterruptedException {
+    final IllegalStateException failure = new IllegalStateException("failed");
+    BatchLoader<Integer, Integer> loader = new BatchLoader<>(keys -> {
+      throw failure;
+    }, 10, 5);
+    Promise<Integer> one = loader.load(1);
+    Promise<Integer> two = loader.load(2);
+    assertTrue(Await.settled(one, 5000));
+    assertTrue(Await.settled(two, 5000));
+    assertEquals(failure, one.getError());
+    assertEquals(failure, two.getError());
+  }
+
+  @Test
+  public void batchFunctionThrowingErrorRejectsEveryKey() throws InterruptedException {
+    final AssertionError failure = new AssertionError("failed");
+    BatchLoader<Integer, Integer> loader = new BatchLoader<>(keys -> {
+      throw failure;
+    }, 10, 5);
+    Promise<Integer> one = loader.load(1);
+    Promise<Integer> two = loader.load(2);
+    assertTrue(Await.settled(one, 5000));
+    assertTrue(Await.settled(two, 5000));
+    assertEquals(failure, one.getError());
+    assertEquals(failure, two.getError());
+  }
+
+  @Test
+  public void cancellingOneCallerLeavesOthersOfSameKey() throws InterruptedException {
+    List<List<Integer>> calls = new ArrayList<>();
+    BatchLoader<Integer, Integer> loader = loader(calls, 100, 20);
+    Promise<Integer> first = loader.load(1);
+    Promise<Integer> second = loader.load(1);
+    assertTrue(first.cancel());
+    assertTrue(Await.settled(second, 5000));
+    assertEquals(10, (int) second.getResult());
+    assertTrue(first.isCancelled());
+    assertEquals(Arrays.asList(Arrays.asList(1)), calls);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import promise.commons.TestPromise;
+import promise.commons.util.LatencyHistogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HedgeTest {
+  @BeforeClass
+  public static void init() {
+    TestPromise.instance();
+  }
+
+  /**
+   * callable whose first call waits for {@link #release} and whose later calls return
+   * right away
+   */
+  private static final class SlowFirst implements Callable<String> {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger();
+    final long createdAt = System.nanoTime();
+    final AtomicLong secondAfter = new AtomicLong();
+
+    @Override
+    public String call() throws Exception {
+      if (calls.incrementAndGet() == 1) {
+        release.await(10, TimeUnit.SECONDS);
+        return "slow";
+      }
+      secondAfter.compareAndSet(0, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdAt));
+      return "fast";
+    }
+  }
+
+  @Test
+  public void hedgeWinsOverSlowAttempt() throws InterruptedException {
+    SlowFirst callable = new SlowFirst();
+    try {
+      Promise<String> hedged = Promise.hedged(callable, 30, 1);
+      assertTrue(Await.settled(hedged, 5000));
+      assertEquals("fast", hedged.getResult());
+      assertTrue(callable.secondAfter.get() >= 30);
+    } finally {
+      callable.release.countDown();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void loserIsCancelledAndNoFurtherHedgeStarts() throws Exception {
+    SlowFirst callable = new SlowFirst();
+    try {
+      Hedge<String> hedge = new Hedge<>(callable, 30, null, 3);
+      Promise<String> hedged = hedge.start();
+      assertTrue(Await.settled(hedged, 5000));
+      Field field = Hedge.class.getDeclaredField("attempts");
+      field.setAccessible(true);
+      List<Promise<String>> attempts = (List<Promise<String>>) field.get(hedge);
+      assertTrue(attempts.get(0).isCancelled());
+      Thread.sleep(100);
+      assertEquals(2, callable.calls.get());
+    } finally {
+      callable.release.countDown();
+    }
+  }
+
+  @Test
+  public void hedgesAfterLearnedPercentile() throws InterruptedException {
+    LatencyHistogram latencies = new LatencyHistogram();
+    for (int i = 0; i < 20; i++) latencies.record(TimeUnit.MILLISECONDS.toNanos(40));
+    SlowFirst callable = new SlowFirst();
+    try {
+      Promise<String> hedged = Promise.hedged(callable, latencies, 60_000, 1);
+      assertTrue(Await.settled(hedged, 5000));
+      assertEquals("fast", hedged.getResult());
+      assertTrue(callable.secondAfter.get() >= 40);
+    } finally {
+      callable.release.countDown();
+    }
+  }
+
+  @Test
+  public void learnedDelayFallsBackUntilEnoughSamples() {
+    LatencyHistogram latencies = new LatencyHistogram();
+    for (int i = 0; i < 19; i++) latencies.record(TimeUnit.MILLISECONDS.toNanos(40));
+    assertEquals(500, Hedge.learnedDelay(latencies, 95, 500));
+    latencies.record(TimeUnit.MILLISECONDS.toNanos(40));
+    assertEquals(40, Hedge.learnedDelay(latencies, 95, 500));
+  }
+
+  @Test
+  public void failedAttemptStartsNextRightAway() throws InterruptedException {
+    final AtomicInteger calls = new AtomicInteger();
+    Promise<Integer> hedged = Promise.hedged(() -> {
+      if (calls.incrementAndGet() == 1) throw new IllegalStateException("failed");
+      return 2;
+    }, 60_000, 1);
+    assertTrue(Await.settled(hedged, 5000));
+    assertEquals(2, (int) hedged.getResult());
+  }
+
+  @Test
+  public void rejectsWithFirstErrorOnceEveryAttemptFailed() throws InterruptedException {
+    final IllegalStateException first = new IllegalStateException("first");
+    final AtomicInteger calls = new AtomicInteger();
+    Promise<Integer> hedged = Promise.hedged(() -> {
+      if (calls.incrementAndGet() == 1) throw first;
+      throw new IllegalStateException("later");
+    }, 10, 2);
+    assertTrue(Await.settled(hedged, 5000));
+    assertSame(first, hedged.getError());
+    assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void callableThrowingErrorRejects() throws InterruptedException {
+    final AssertionError failure = new AssertionError("failed");
+    Promise<Integer> hedged = Promise.hedged(() -> {
+      throw failure;
+    }, 60_000, 0);
+    assertTrue(Await.settled(hedged, 5000));
+    assertSame(failure, hedged.getError());
+  }
+}
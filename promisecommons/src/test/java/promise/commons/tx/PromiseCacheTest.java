@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import promise.commons.TestPromise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PromiseCacheTest {
+  @BeforeClass
+  public static void init() {
+    TestPromise.instance();
+  }
+
+  @Test
+  public void callersShareOneLoad() throws InterruptedException {
+    PromiseCache<String, Integer> cache = new PromiseCache<>(10, 60_000);
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    Set<Promise<Integer>> promises = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (int i = 0; i < 20; i++)
+      promises.add(cache.get("key", () -> {
+        loads.incrementAndGet();
+        release.await();
+        return 42;
+      }));
+    release.countDown();
+    for (Promise<Integer> promise : promises) {
+      assertTrue(Await.settled(promise, 5000));
+      assertEquals(42, (int) promise.getResult());
+    }
+    assertEquals(20, promises.size());
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void cancellingOneCallerKeepsTheLoad() throws InterruptedException {
+    PromiseCache<String, Integer> cache = new PromiseCache<>(10, 60_000);
+    final CountDownLatch release = new CountDownLatch(1);
+    Promise<Integer> first = cache.get("key", () -> {
+      release.await();
+      return 42;
+    });
+    Promise<Integer> second = cache.get("key", () -> 0);
+    first.cancel();
+    release.countDown();
+    assertTrue(Await.settled(second, 5000));
+    assertEquals(42, (int) second.getResult());
+    assertTrue(first.isCancelled());
+    Promise<Integer> third = cache.get("key", () -> 0);
+    assertTrue(Await.settled(third, 5000));
+    assertEquals(42, (int) third.getResult());
+  }
+
+  @Test
+  public void loadCancelledByEveryCallerIsDropped() throws InterruptedException {
+    PromiseCache<String, Integer> cache = new PromiseCache<>(10, 60_000);
+    final CountDownLatch release = new CountDownLatch(1);
+    Promise<Integer> first = cache.get("key", () -> {
+      release.await();
+      return 42;
+    });
+    Promise<Integer> second = cache.get("key", () -> 0);
+    first.cancel();
+    second.cancel();
+    release.countDown();
+    Promise<Integer> third = cache.get("key", () -> 7);
+    assertTrue(Await.settled(third, 5000));
+    assertEquals(7, (int) third.getResult());
+  }
+
+  @Test
+  public void rejectedLoadIsNotCached() throws InterruptedException {
+    PromiseCache<String, Integer> cache = new PromiseCache<>(10, 60_000);
+    Promise<Integer> failed = cache.get("key", () -> {
+      throw new IllegalStateException("failed");
+    });
+    assertTrue(Await.settled(failed, 5000));
+    assertFalse(failed.isSuccess());
+    Promise<Integer> loaded = cache.get("key", () -> 1);
+    assertTrue(Await.settled(loaded, 5000));
+    assertEquals(1, (int) loaded.getResult());
+  }
+}
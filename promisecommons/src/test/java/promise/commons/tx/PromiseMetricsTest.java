@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import promise.commons.TestPromise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PromiseMetricsTest {
+  @BeforeClass
+  public static void init() {
+    TestPromise.instance();
+  }
+
+  @After
+  public void disable() {
+    PromiseMetrics.disable();
+    PromiseMetrics.reset();
+  }
+
+  /**
+   * @param name   stage to wait for
+   * @param millis longest wait
+   * @return snapshot of the stage once its chain latency is recorded, which happens right
+   * after the stage settles
+   */
+  private static PromiseMetrics.StageSnapshot recorded(String name, long millis)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + millis;
+    for (; ; ) {
+      PromiseMetrics.StageSnapshot snapshot = PromiseMetrics.snapshot(name);
+      if (snapshot != null && snapshot.getChain().getCount() > 0) return snapshot;
+      if (System.currentTimeMillis() > deadline) return snapshot;
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void disabledRecordsNothing() throws InterruptedException {
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> stage = upstream.then(value -> value + 1).named("metrics-disabled");
+    upstream.complete(1, null);
+    assertTrue(Await.settled(stage, 5000));
+    assertNull(PromiseMetrics.snapshot("metrics-disabled"));
+  }
+
+  @Test
+  public void namedStageRecordsEveryLatency() throws InterruptedException {
+    PromiseMetrics.enable();
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> stage = upstream.then(value -> value + 1).named("metrics-stage");
+    upstream.complete(1, null);
+    assertTrue(Await.settled(stage, 5000));
+    PromiseMetrics.StageSnapshot snapshot = recorded("metrics-stage", 5000);
+    assertEquals(1, snapshot.getQueueWait().getCount());
+    assertEquals(1, snapshot.getExecution().getCount());
+    assertEquals(1, snapshot.getChain().getCount());
+    assertTrue(PromiseMetrics.snapshot().containsKey("metrics-stage"));
+  }
+
+  @Test
+  public void instrumentedTaskRecordsQueueWaitAndExecution() {
+    PromiseMetrics.enable();
+    final AtomicInteger ran = new AtomicInteger();
+    Runnable task = PromiseMetrics.instrument("metrics-task", ran::incrementAndGet);
+    task.run();
+    assertEquals(1, ran.get());
+    PromiseMetrics.StageSnapshot snapshot = PromiseMetrics.snapshot("metrics-task");
+    assertEquals(1, snapshot.getQueueWait().getCount());
+    assertEquals(1, snapshot.getExecution().getCount());
+    assertEquals(0, snapshot.getChain().getCount());
+  }
+
+  @Test
+  public void resetForgetsStages() {
+    PromiseMetrics.enable();
+    PromiseMetrics.instrument("metrics-reset", () -> {
+    }).run();
+    PromiseMetrics.reset();
+    assertNull(PromiseMetrics.snapshot("metrics-reset"));
+  }
+}
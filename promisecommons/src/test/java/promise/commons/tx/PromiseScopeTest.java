@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import promise.commons.TestPromise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PromiseScopeTest {
+  @BeforeClass
+  public static void init() {
+    TestPromise.instance();
+  }
+
+  @Test
+  public void limitsConcurrency() throws InterruptedException {
+    PromiseScope scope = new PromiseScope(2);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger peak = new AtomicInteger();
+    for (int i = 0; i < 8; i++)
+      scope.launch(() -> {
+        int now = running.incrementAndGet();
+        int max;
+        while (now > (max = peak.get()) && !peak.compareAndSet(max, now)) ;
+        Thread.sleep(10);
+        running.decrementAndGet();
+        return null;
+      });
+    Promise<Object> all = scope.awaitAll();
+    assertTrue(Await.settled(all, 5000));
+    assertNull(all.getError());
+    assertTrue(peak.get() <= 2);
+    assertEquals(0, scope.size());
+  }
+
+  @Test
+  public void failingChildCancelsTheOthers() throws InterruptedException {
+    PromiseScope scope = new PromiseScope(2);
+    Promise<Object> slow = scope.launch(() -> {
+      Thread.sleep(500);
+      return null;
+    });
+    final IllegalStateException failure = new IllegalStateException("failed");
+    scope.launch(() -> {
+      throw failure;
+    });
+    Promise<Object> all = scope.awaitAll();
+    assertTrue(Await.settled(all, 5000));
+    assertEquals(failure, all.getError());
+    assertTrue(slow.getError() instanceof CancellationException);
+  }
+
+  @Test
+  public void errorInTaskRejectsChild() throws InterruptedException {
+    PromiseScope scope = new PromiseScope(1);
+    final AssertionError error = new AssertionError("error");
+    Promise<Object> child = scope.launch(() -> {
+      throw error;
+    });
+    Promise<Object> all = scope.awaitAll();
+    assertTrue(Await.settled(all, 5000));
+    assertEquals(error, child.getError());
+    assertEquals(error, all.getError());
+  }
+
+  @Test
+  public void closeCancelsChildren() throws InterruptedException {
+    PromiseScope scope = new PromiseScope(1);
+    Promise<Object> child = scope.launch(() -> {
+      Thread.sleep(500);
+      return null;
+    });
+    scope.close();
+    assertTrue(child.getError() instanceof CancellationException);
+    assertTrue(scope.launch(() -> 1).getError() instanceof CancellationException);
+    assertTrue(Await.settled(scope.awaitAll(), 5000));
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import promise.commons.TestPromise;
+import promise.commons.model.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class PromiseStreamTest {
+  @BeforeClass
+  public static void init() {
+    TestPromise.instance();
+  }
+
+  @Test
+  public void collectsMappedAndFilteredItems() throws InterruptedException {
+    Promise<List<Integer>> items = PromiseStream.from(Arrays.asList(1, 2, 3, 4, 5, 6))
+        .filter(item -> item % 2 == 0)
+        .map(item -> item * 10)
+        .collect();
+    assertTrue(Await.settled(items, 5000));
+    assertEquals(Arrays.asList(20, 40, 60), items.getResult());
+  }
+
+  @Test
+  public void buffersIntoChunks() throws InterruptedException {
+    Promise<List<List<Integer>>> chunks = PromiseStream.from(Arrays.asList(1, 2, 3, 4, 5))
+        .buffer(2)
+        .collect();
+    assertTrue(Await.settled(chunks, 5000));
+    assertEquals(3, chunks.getResult().size());
+    assertEquals(Arrays.asList(5), chunks.getResult().get(2));
+  }
+
+  @Test
+  public void consumerErrorRejectsForEach() throws InterruptedException {
+    final IllegalStateException failure = new IllegalStateException("failed");
+    Promise<Object> done = PromiseStream.from(Arrays.asList(1, 2, 3)).forEach(item -> {
+      if (item == 2) throw failure;
+    });
+    assertTrue(Await.settled(done, 5000));
+    assertEquals(failure, done.getError());
+  }
+
+  @Test
+  public void invalidRequestIsSignalledByTheDrain() throws InterruptedException {
+    final AtomicReference<PromiseStream.Subscription> subscription = new AtomicReference<>();
+    final AtomicReference<Thread> errorThread = new AtomicReference<>();
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final AtomicInteger signals = new AtomicInteger();
+    final CountDownLatch failed = new CountDownLatch(1);
+    PromiseStream.from(Arrays.asList(1, 2, 3)).subscribe(new PromiseStream.Subscriber<Integer>() {
+      @Override
+      public void onSubscribe(PromiseStream.Subscription s) {
+        subscription.set(s);
+      }
+
+      @Override
+      public void onNext(Integer item) {
+        signals.incrementAndGet();
+      }
+
+      @Override
+      public void onError(Throwable e) {
+        signals.incrementAndGet();
+        errorThread.set(Thread.currentThread());
+        error.set(e);
+        failed.countDown();
+      }
+
+      @Override
+      public void onComplete() {
+        signals.incrementAndGet();
+      }
+    });
+    subscription.get().request(0);
+    assertTrue(failed.await(5, TimeUnit.SECONDS));
+    assertTrue(error.get() instanceof IllegalArgumentException);
+    assertNotSame(Thread.currentThread(), errorThread.get());
+    subscription.get().request(1);
+    Thread.sleep(20);
+    assertEquals(1, signals.get());
+  }
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kotlin.Unit;
+import promise.commons.TestPromise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PromiseTest {
+  @BeforeClass
+  public static void init() {
+    TestPromise.instance();
+  }
+
+  @Test
+  public void firstCompletionWins() {
+    Promise<Integer> promise = Promise.pending();
+    assertTrue(promise.complete(1, null));
+    assertFalse(promise.complete(2, null));
+    assertFalse(promise.complete(null, new IllegalStateException("late")));
+    assertEquals(Promise.State.Fulfilled, promise.getState());
+    assertEquals(1, (int) promise.getResult());
+  }
+
+  @Test
+  public void handlersRunOnSettlingThreadInRegistrationOrder() {
+    Promise<Integer> promise = Promise.pending();
+    final Thread settling = Thread.currentThread();
+    final List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      final int index = i;
+      promise.pipe((result, error) -> {
+        assertSame(settling, Thread.currentThread());
+        order.add(index);
+      });
+    }
+    assertFalse(promise.isDone());
+    promise.complete(5, null);
+    assertEquals(Arrays.asList(0, 1, 2), order);
+    // registered once settled, called right away
+    promise.pipe((result, error) -> order.add(result));
+    assertEquals(Arrays.asList(0, 1, 2, 5), order);
+  }
+
+  @Test
+  public void everyHandlerIsCalledOnceWhenRegisteredWhileSettling() throws Exception {
+    final int threads = 4;
+    final int handlers = 1000;
+    for (int round = 0; round < 20; round++) {
+      final Promise<Integer> promise = Promise.pending();
+      final AtomicInteger calls = new AtomicInteger();
+      final CountDownLatch start = new CountDownLatch(1);
+      final AtomicInteger wins = new AtomicInteger();
+      List<Thread> started = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        Thread thread = new Thread(() -> {
+          try {
+            start.await();
+          } catch (InterruptedException ignored) {
+          }
+          for (int i = 0; i < handlers; i++) {
+            promise.pipe((result, error) -> calls.incrementAndGet());
+            if (i == handlers / 2 && promise.complete(i, null)) wins.incrementAndGet();
+          }
+        });
+        thread.start();
+        started.add(thread);
+      }
+      start.countDown();
+      for (Thread thread : started) thread.join();
+      assertEquals(1, wins.get());
+      assertEquals(threads * handlers, calls.get());
+    }
+  }
+
+  @Test
+  public void thenOnDispatchesToGivenExecutor() {
+    final List<Runnable> tasks = new ArrayList<>();
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> stage = upstream.thenOn(tasks::add, value -> value + 1);
+    upstream.complete(1, null);
+    assertEquals(1, tasks.size());
+    assertFalse(stage.isDone());
+    tasks.get(0).run();
+    assertEquals(2, (int) stage.getResult());
+  }
+
+  @Test
+  public void directStageRunsOnSettlingThread() {
+    final Thread settling = Thread.currentThread();
+    final Thread[] ran = new Thread[1];
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> stage = upstream.thenOn(Promise.DIRECT, value -> {
+      ran[0] = Thread.currentThread();
+      return value + 1;
+    });
+    upstream.complete(1, null);
+    assertTrue(stage.isDone());
+    assertSame(settling, ran[0]);
+    assertEquals(2, (int) stage.getResult());
+  }
+
+  @Test
+  public void withExecutorSetsDefaultUntilCleared() {
+    final List<Runnable> tasks = new ArrayList<>();
+    Executor executor = tasks::add;
+    try {
+      Promise.withExecutor(executor);
+      assertSame(executor, Promise.defaultExecutor());
+      Promise<Integer> upstream = Promise.pending();
+      Promise<Integer> stage = upstream.then(value -> value + 1);
+      Promise<Integer> recovered = Promise.<Integer>rejected(new IllegalStateException("failed"))
+          .error((Callback2<Throwable, Integer>) error -> 0);
+      upstream.complete(1, null);
+      assertEquals(2, tasks.size());
+      for (Runnable task : tasks) task.run();
+      assertEquals(2, (int) stage.getResult());
+      assertEquals(0, (int) recovered.getResult());
+    } finally {
+      Promise.withExecutor(null);
+    }
+    assertFalse(Promise.defaultExecutor() == executor);
+  }
+
+  @Test
+  public void cancellingOnlyDerivedPromiseCancelsUpstream() {
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> derived = upstream.then(value -> value);
+    assertTrue(derived.cancel());
+    assertTrue(upstream.isCancelled());
+  }
+
+  @Test
+  public void otherDerivedPromiseKeepsUpstream() {
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> first = upstream.then(value -> value);
+    Promise<Integer> second = upstream.then(value -> value + 1);
+    first.cancel();
+    assertFalse(upstream.isDone());
+    second.cancel();
+    assertTrue(upstream.isCancelled());
+  }
+
+  @Test
+  public void pipeDoesNotKeepUpstream() {
+    Promise<Integer> upstream = Promise.pending();
+    upstream.pipe((result, error) -> {
+    });
+    upstream.then(value -> value).cancel();
+    assertTrue(upstream.isCancelled());
+  }
+
+  @Test
+  public void timeoutCancelsUpstream() throws InterruptedException {
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> timeout = upstream.timeout(10);
+    assertTrue(Await.settled(timeout, 5000));
+    assertTrue(timeout.getError() instanceof TimeoutException);
+    // cancelled right after the timeout settles, on the timer task
+    assertTrue(Await.settled(upstream, 5000));
+    assertTrue(upstream.isCancelled());
+  }
+
+  @Test
+  public void cancellingFusedStageRejectsStagesAfterIt() {
+    final List<Runnable> tasks = new ArrayList<>();
+    Executor executor = tasks::add;
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> first = upstream.thenOn(executor, value -> value + 1);
+    Promise<Integer> second = first.thenOn(executor, value -> value + 1);
+    Promise<Integer> third = second.thenOn(executor, value -> value + 1);
+    assertTrue(first.cancel());
+    assertTrue(second.getError() instanceof CancellationException);
+    assertTrue(third.getError() instanceof CancellationException);
+    assertTrue(upstream.isCancelled());
+    assertTrue(tasks.isEmpty());
+  }
+
+  @Test
+  public void cancellingStageRejectsFusedAndRegisteredStagesAlike() {
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> first = upstream.thenOn(Promise.DIRECT, value -> value + 1);
+    Promise<Integer> second = first.thenOn(Promise.DIRECT, value -> value + 1);
+    // registered on the first stage instead of fused to it
+    Promise<Integer> third = first.then(value -> value + 1);
+    assertTrue(first.cancel());
+    assertTrue(second.getError() instanceof CancellationException);
+    assertTrue(third.getError() instanceof CancellationException);
+  }
+
+  @Test
+  public void derivedPromiseSettlesLikeUpstream() throws InterruptedException {
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> derived = upstream.then(value -> value * 2);
+    upstream.complete(21, null);
+    assertTrue(Await.settled(derived, 5000));
+    assertEquals(42, (int) derived.getResult());
+  }
+
+  @Test
+  public void throwingObserverDoesNotStopFusedStages() {
+    final List<Runnable> tasks = new ArrayList<>();
+    Executor executor = tasks::add;
+    Promise<Integer> upstream = Promise.pending();
+    Promise<Integer> first = upstream.thenOn(executor, value -> value + 1);
+    Promise<Integer> second = first.thenOn(executor, value -> value + 1);
+    Promise<Integer> third = second.thenOn(executor, value -> value + 1);
+    final RuntimeException thrown = new RuntimeException("observer");
+    first.pipe((result, error) -> {
+      throw thrown;
+    });
+    upstream.complete(1, null);
+    // the three stages are fused into one task
+    assertEquals(1, tasks.size());
+    try {
+      tasks.get(0).run();
+      fail("observer exception was swallowed");
+    } catch (RuntimeException e) {
+      assertSame(thrown, e);
+    }
+    assertEquals(3, (int) second.getResult());
+    assertEquals(4, (int) third.getResult());
+  }
+
+  @Test
+  public void cancellingAdopterLeavesSharedPromisePending() {
+    final Promise<Integer> shared = Promise.pending();
+    Promise<Object> first = Promise.resolved(1).thenOn(Promise.DIRECT, value -> shared);
+    Promise<Object> second = Promise.resolved(2).thenOn(Promise.DIRECT, value -> shared);
+    assertTrue(first.cancel());
+    assertTrue(first.isCancelled());
+    assertFalse(shared.isDone());
+    assertFalse(second.isDone());
+    shared.complete(5, null);
+    assertEquals(5, (int) shared.getResult());
+    assertEquals(5, second.getResult());
+    assertTrue(first.isCancelled());
+  }
+
+  @Test
+  public void linkedPromiseOutlivesCancelledAdopter() {
+    final Promise<Integer> inner = Promise.pending();
+    Promise<Object> outer = Promise.resolved(1).thenOn(Promise.DIRECT, value -> inner);
+    final Object[] seen = new Object[1];
+    inner.pipe((result, error) -> seen[0] = result);
+    outer.cancel();
+    assertFalse(inner.isDone());
+    inner.complete(7, null);
+    assertEquals(7, (int) inner.getResult());
+    assertEquals(7, seen[0]);
+    assertTrue(outer.isCancelled());
+  }
+
+  @Test
+  public void cancellingAdoptedPromiseRejectsAdopters() {
+    final Promise<Integer> shared = Promise.pending();
+    Promise<Object> first = Promise.resolved(1).thenOn(Promise.DIRECT, value -> shared);
+    Promise<Object> second = Promise.resolved(2).thenOn(Promise.DIRECT, value -> shared);
+    assertTrue(shared.cancel());
+    assertTrue(shared.isCancelled());
+    assertTrue(first.getError() instanceof CancellationException);
+    assertTrue(second.getError() instanceof CancellationException);
+  }
+
+  @Test
+  public void longAdoptionChainSettles() throws InterruptedException {
+    Promise<Object> chain = loop(0, 20_000);
+    assertTrue(Await.settled(chain, 10_000));
+    assertEquals(20_000, chain.getResult());
+  }
+
+  @Test
+  public void allSettledWaitsForEveryPromise() {
+    Promise<Integer> pending = Promise.pending();
+    Promise<Integer> rejected = Promise.rejected(new IllegalStateException("failed"));
+    Promise<Integer> fulfilled = Promise.resolved(3);
+    Promise<List<Promise<Integer>>> all = Promise.allSettled(pending, rejected, fulfilled);
+    assertFalse(all.isDone());
+    pending.complete(1, null);
+    assertTrue(all.isSuccess());
+    assertEquals(Arrays.asList(pending, rejected, fulfilled), all.getResult());
+  }
+
+  @Test
+  public void allSettledOfNothingIsFulfilled() {
+    Promise<List<Promise<Object>>> all = Promise.allSettled(new ArrayList<Promise<Object>>());
+    assertTrue(all.isDone());
+    assertTrue(all.getResult().isEmpty());
+  }
+
+  @Test
+  public void anyFulfillsWithFirstResult() {
+    Promise<Integer> rejected = Promise.rejected(new IllegalStateException("failed"));
+    Promise<Integer> first = Promise.pending();
+    Promise<Integer> second = Promise.pending();
+    Promise<Integer> any = Promise.any(rejected, first, second);
+    assertFalse(any.isDone());
+    second.complete(2, null);
+    first.complete(1, null);
+    assertEquals(2, (int) any.getResult());
+  }
+
+  @Test
+  public void anyRejectsOnceAllRejected() {
+    Promise<Integer> first = Promise.pending();
+    Promise<Integer> any = Promise.any(first, Promise.<Integer>rejected(new IllegalStateException("failed")));
+    assertFalse(any.isDone());
+    first.complete(null, new IllegalArgumentException("failed too"));
+    assertTrue(any.getError() instanceof RuntimeException);
+    assertTrue(Promise.any(new ArrayList<Promise<Object>>()).getError() instanceof NoSuchElementException);
+  }
+
+  @Test
+  public void mapKeepsOrderWithinConcurrency() throws InterruptedException {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger peak = new AtomicInteger();
+    List<Integer> items = new ArrayList<>();
+    for (int i = 0; i < 20; i++) items.add(i);
+    Promise<List<Integer>> map = Promise.map(items, 3, (Callback2<Integer, Integer>) item -> {
+      int now = running.incrementAndGet();
+      while (true) {
+        int max = peak.get();
+        if (now <= max || peak.compareAndSet(max, now)) break;
+      }
+      // later items finish first
+      pause(20 - item);
+      running.decrementAndGet();
+      return item * 2;
+    });
+    assertTrue(Await.settled(map, 5000));
+    assertTrue(peak.get() <= 3);
+    for (int i = 0; i < 20; i++) assertEquals(i * 2, (int) map.getResult().get(i));
+  }
+
+  @Test
+  public void mapStopsAtFirstFailure() throws InterruptedException {
+    final AtomicInteger mapped = new AtomicInteger();
+    final IllegalStateException failure = new IllegalStateException("failed");
+    Promise<List<Integer>> map = Promise.map(Arrays.asList(0, 1, 2, 3), 1,
+        (Callback2<Integer, Integer>) item -> {
+          if (item == 0) throw failure;
+          return mapped.incrementAndGet();
+        });
+    assertTrue(Await.settled(map, 5000));
+    assertSame(failure, map.getError());
+    assertEquals(0, mapped.get());
+  }
+
+  @Test
+  public void mapCallbackThrowingErrorRejects() throws InterruptedException {
+    final AssertionError failure = new AssertionError("failed");
+    Promise<List<Integer>> map = Promise.map(Arrays.asList(0, 1), 2,
+        (Callback2<Integer, Integer>) item -> {
+          throw failure;
+        });
+    assertTrue(Await.settled(map, 5000));
+    assertSame(failure, map.getError());
+  }
+
+  @Test
+  public void resolvedNullAndUnitShareCachedInstances() {
+    assertSame(Promise.resolved(null), Promise.resolved(null));
+    assertSame(Promise.resolved(Unit.INSTANCE), Promise.resolved(Unit.INSTANCE));
+    assertSame(Promise.resolved(null), Promise.resolve((Object) null));
+    assertFalse(Promise.resolved(null).cancel());
+    assertEquals(Promise.State.Fulfilled, Promise.resolved(null).getState());
+  }
+
+  @Test
+  public void resolvedPromiseRunsHandlersOnCallingThread() {
+    Promise<Integer> promise = Promise.resolve(1);
+    assertTrue(promise.isDone());
+    assertEquals(1, (int) promise.getResult());
+    final Thread calling = Thread.currentThread();
+    final Thread[] ran = new Thread[1];
+    promise.pipe((result, error) -> ran[0] = Thread.currentThread());
+    assertSame(calling, ran[0]);
+  }
+
+  @Test
+  public void rejectedPromisesCarryTheirError() {
+    IllegalStateException failure = new IllegalStateException("failed");
+    Promise<Integer> rejected = Promise.rejected(failure);
+    Promise<Integer> resolved = Promise.resolve(failure);
+    Promise<Integer> constructed = new Promise<>(failure);
+    for (Promise<Integer> promise : Arrays.asList(rejected, resolved, constructed)) {
+      assertEquals(Promise.State.Rejected, promise.getState());
+      assertSame(failure, promise.getError());
+    }
+  }
+
+  @Test
+  public void delayedPromiseSettlesOnceDelayElapsed() throws InterruptedException {
+    final long start = System.nanoTime();
+    Promise<Long> promise = new Promise<>(50, (Callback2<Object, Long>) arg ->
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    assertFalse(promise.isDone());
+    assertTrue(Await.settled(promise, 5000));
+    assertTrue(promise.getResult() >= 50);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void mapRejectsConcurrencyBelowOne() {
+    Promise.map(Arrays.asList(1), 0, (Callback2<Integer, Integer>) item -> item);
+  }
+
+  @Test
+  public void cancellingRecursiveChainStopsIt() throws InterruptedException {
+    final AtomicInteger fetched = new AtomicInteger();
+    Promise<Object> chain = page(0, fetched);
+    Thread.sleep(50);
+    assertTrue(chain.cancel());
+    assertTrue(stops(fetched, 5000));
+    assertTrue(chain.isCancelled());
+  }
+
+  @Test
+  public void timingOutRecursiveChainStopsIt() throws InterruptedException {
+    final AtomicInteger fetched = new AtomicInteger();
+    Promise<Object> timeout = page(0, fetched).timeout(50);
+    assertTrue(Await.settled(timeout, 5000));
+    assertTrue(timeout.getError() instanceof TimeoutException);
+    assertTrue(stops(fetched, 5000));
+  }
+
+  /**
+   * @param n       page to fetch
+   * @param fetched counts the pages fetched
+   * @return promise of the last page, fetching pages without end
+   */
+  private static Promise<Object> page(final int n, final AtomicInteger fetched) {
+    return new Promise<>((Callback2<Object, Integer>) arg -> {
+      fetched.incrementAndGet();
+      pause(1);
+      return n;
+    }).then((Callback2<Integer, Object>) value -> page(n + 1, fetched));
+  }
+
+  /**
+   * @param fetched       counts the pages fetched
+   * @param timeoutMillis time to wait for
+   * @return true if no page was fetched for a while, a page the chain returned before
+   * it was cancelled may still fetch the next ones until the chain links it
+   */
+  private static boolean stops(AtomicInteger fetched, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    int last = fetched.get();
+    while (System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+      int now = fetched.get();
+      if (now == last) return true;
+      last = now;
+    }
+    return false;
+  }
+
+  /**
+   * @param millis time to sleep for
+   */
+  private static void pause(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static Promise<Object> loop(final int n, final int max) {
+    return Promise.resolved(n).then(value -> value >= max ? value : loop(value + 1, max));
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import promise.commons.TestPromise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PromiseWatchdogTest {
+  @BeforeClass
+  public static void init() {
+    TestPromise.instance();
+  }
+
+  @After
+  public void disable() {
+    PromiseWatchdog.disable();
+  }
+
+  /**
+   * @param site   reported creation site
+   * @param method test method the promise was created in
+   * @return true if the promise was created by the method
+   */
+  private static boolean createdIn(Throwable site, String method) {
+    for (StackTraceElement element : site.getStackTrace())
+      if (method.equals(element.getMethodName())) return true;
+    return false;
+  }
+
+  @Test
+  public void reportsHungPromise() throws InterruptedException {
+    final CountDownLatch hung = new CountDownLatch(1);
+    PromiseWatchdog.enable(20, 10, new PromiseWatchdog.Listener() {
+      @Override
+      public void onHung(Throwable site, long pendingMillis) {
+        if (createdIn(site, "reportsHungPromise")) hung.countDown();
+      }
+
+      @Override
+      public void onAbandoned(Throwable site, long pendingMillis) {
+      }
+    });
+    Promise<Object> pending = Promise.pending();
+    assertTrue(hung.await(5, TimeUnit.SECONDS));
+    pending.complete(null, null);
+  }
+
+  @Test
+  public void settledPromiseIsNotReported() throws InterruptedException {
+    final CountDownLatch hung = new CountDownLatch(1);
+    PromiseWatchdog.enable(20, 10, new PromiseWatchdog.Listener() {
+      @Override
+      public void onHung(Throwable site, long pendingMillis) {
+        if (createdIn(site, "settledPromiseIsNotReported")) hung.countDown();
+      }
+
+      @Override
+      public void onAbandoned(Throwable site, long pendingMillis) {
+        if (createdIn(site, "settledPromiseIsNotReported")) hung.countDown();
+      }
+    });
+    Promise<Object> settled = Promise.pending();
+    settled.complete(1, null);
+    assertFalse(hung.await(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void reportsAbandonedPromise() throws InterruptedException {
+    final CountDownLatch abandoned = new CountDownLatch(1);
+    PromiseWatchdog.enable(60_000, 10, new PromiseWatchdog.Listener() {
+      @Override
+      public void onHung(Throwable site, long pendingMillis) {
+      }
+
+      @Override
+      public void onAbandoned(Throwable site, long pendingMillis) {
+        if (createdIn(site, "reportsAbandonedPromise")) abandoned.countDown();
+      }
+    });
+    Promise.pending();
+    for (int i = 0; i < 50 && abandoned.getCount() > 0; i++) {
+      System.gc();
+      abandoned.await(100, TimeUnit.MILLISECONDS);
+    }
+    assertEquals(0, abandoned.getCount());
+  }
+}
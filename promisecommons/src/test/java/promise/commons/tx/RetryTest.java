@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.tx;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import promise.commons.TestPromise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RetryTest {
+  @BeforeClass
+  public static void init() {
+    TestPromise.instance();
+  }
+
+  @Test
+  public void retriesUntilSuccess() throws InterruptedException {
+    final AtomicInteger attempts = new AtomicInteger();
+    Promise<Integer> promise = new Promise<Integer>((arg, resolver) -> {
+      if (attempts.incrementAndGet() < 3) resolver.resolve(null, new IllegalStateException("failed"));
+      else resolver.resolve(attempts.get(), null);
+    }).retry(RetryPolicy.newBuilder().maxAttempts(5).baseDelayMillis(1).build());
+    assertTrue(Await.settled(promise, 5000));
+    assertNull(promise.getError());
+    assertEquals(3, (int) promise.getResult());
+  }
+
+  @Test
+  public void retriesStage() throws InterruptedException {
+    final AtomicInteger attempts = new AtomicInteger();
+    Promise<Integer> promise = Promise.resolved(10)
+        .then(value -> {
+          if (attempts.incrementAndGet() < 3) throw new IllegalStateException("failed");
+          return value + attempts.get();
+        })
+        .retry(RetryPolicy.newBuilder().maxAttempts(5).baseDelayMillis(1).build());
+    assertTrue(Await.settled(promise, 5000));
+    assertEquals(13, (int) promise.getResult());
+  }
+
+  @Test
+  public void fulfilledPromiseIsNotRetried() throws InterruptedException {
+    Promise<Integer> promise = Promise.resolved(10).then(value -> value + 1);
+    assertTrue(Await.settled(promise, 5000));
+    assertSame(promise, promise.retry(RetryPolicy.newBuilder().build()));
+  }
+
+  @Test
+  public void stopsAfterMaxAttempts() throws InterruptedException {
+    final AtomicInteger attempts = new AtomicInteger();
+    final IllegalStateException failure = new IllegalStateException("failed");
+    Promise<Integer> promise = new Promise<Integer>((arg, resolver) -> {
+      attempts.incrementAndGet();
+      resolver.resolve(null, failure);
+    }).retry(RetryPolicy.newBuilder().maxAttempts(3).baseDelayMillis(1).build());
+    assertTrue(Await.settled(promise, 5000));
+    assertEquals(failure, promise.getError());
+    assertEquals(3, attempts.get());
+  }
+
+  @Test
+  public void cancellingStopsAttemptsWithDeadline() throws InterruptedException {
+    final AtomicInteger attempts = new AtomicInteger();
+    Promise<Integer> promise = new Promise<Integer>((arg, resolver) -> {
+      attempts.incrementAndGet();
+      resolver.resolve(null, new IllegalStateException("failed"));
+    }).retry(RetryPolicy.newBuilder().maxAttempts(10).baseDelayMillis(20).maxDelayMillis(20)
+        .deadlineMillis(10_000).build());
+    Thread.sleep(30);
+    assertTrue(promise.cancel());
+    int cancelledAt = attempts.get();
+    Thread.sleep(100);
+    assertEquals(cancelledAt, attempts.get());
+    assertTrue(cancelledAt < 10);
+  }
+
+  @Test
+  public void delayStaysWithinMaximumForLargeBase() {
+    RetryPolicy policy = RetryPolicy.newBuilder().baseDelayMillis(1L << 40)
+        .maxDelayMillis(Long.MAX_VALUE).build();
+    for (int attempt = 1; attempt <= 40; attempt++) assertTrue(policy.delayMillis(attempt) >= 0);
+    RetryPolicy capped = RetryPolicy.newBuilder().baseDelayMillis(1L << 40)
+        .maxDelayMillis(1000).build();
+    for (int attempt = 1; attempt <= 40; attempt++) {
+      long delay = capped.delayMillis(attempt);
+      assertTrue(delay >= 0 && delay <= 1000);
+    }
+  }
+
+  @Test
+  public void cancellingRetryLeavesOtherWaitersOfFirstAttempt() throws InterruptedException {
+    final CountDownLatch release = new CountDownLatch(1);
+    Promise<Integer> first = new Promise<Integer>((arg, resolver) -> {
+      try {
+        release.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException ignored) {
+      }
+      resolver.resolve(1, null);
+    });
+    Promise<Integer> other = first.then(value -> value + 1);
+    Promise<Integer> promise = first.retry(RetryPolicy.newBuilder().build());
+    assertTrue(promise.cancel());
+    assertFalse(first.isDone());
+    assertFalse(other.isDone());
+    release.countDown();
+    assertTrue(Await.settled(other, 5000));
+    assertEquals(2, (int) other.getResult());
+    assertTrue(promise.isCancelled());
+  }
+
+  @Test
+  public void deadlineCancelsAttemptGoingOn() throws InterruptedException {
+    final AtomicReference<Promise<Integer>> attempt = new AtomicReference<>();
+    attempt.set(new Promise<>((arg, resolver) -> {
+      // never settles
+    }));
+    Promise<Integer> promise = attempt.get()
+        .retry(RetryPolicy.newBuilder().maxAttempts(10).deadlineMillis(20).build());
+    assertTrue(Await.settled(promise, 5000));
+    assertTrue(promise.getError() instanceof TimeoutException);
+    assertTrue(Await.settled(attempt.get(), 5000));
+    assertTrue(attempt.get().isCancelled());
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017, Peter Vincent
+ * Licensed under the Apache License, Version 2.0, Android Promise.
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package promise.commons.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+  @Test
+  public void emptyHistogramReportsZero() {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getValueAtPercentile(50));
+    assertEquals(0, snapshot.getMean(), 0);
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 0; value < 32; value++) histogram.record(value);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(32, snapshot.getCount());
+    assertEquals(15, snapshot.getValueAtPercentile(50));
+    assertEquals(31, snapshot.getValueAtPercentile(100));
+    assertEquals(0, snapshot.getValueAtPercentile(0));
+  }
+
+  @Test
+  public void valuesSharingBucketReportItsHighestValue() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // 32 and 33 are the first two values counted together
+    histogram.record(32);
+    assertEquals(32, histogram.snapshot().getValueAtPercentile(100));
+    histogram.record(33);
+    histogram.record(34);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(33, snapshot.getValueAtPercentile(50));
+    assertEquals(34, snapshot.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void percentilesAreWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 1000; i++) histogram.record(i * 1000);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertWithin(500_000, snapshot.getValueAtPercentile(50));
+    assertWithin(950_000, snapshot.getValueAtPercentile(95));
+    assertWithin(990_000, snapshot.getValueAtPercentile(99));
+    assertEquals(1_000_000, snapshot.getValueAtPercentile(100));
+    assertEquals(1_000_000, snapshot.getMax());
+    assertEquals(500_500, snapshot.getMean(), 0.001);
+  }
+
+  @Test
+  public void negativeValuesCountAsZeroAndLargestValueFits() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(2, snapshot.getCount());
+    assertEquals(0, snapshot.getValueAtPercentile(50));
+    assertEquals(Long.MAX_VALUE, snapshot.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void resetClearsValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(100);
+    histogram.reset();
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getMax());
+  }
+
+  /**
+   * @param expected exact percentile
+   * @param actual   reported percentile, at most one sub bucket above
+   */
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(actual + " is below " + expected, actual >= expected);
+    assertTrue(actual + " is too far from " + expected, actual <= expected + expected / 16);
+  }
+}